@@ -0,0 +1,65 @@
+package net.bndy.ftsi.benchmark;
+
+import net.bndy.ftsi.IndexType;
+import net.bndy.ftsi.Indexable;
+
+public class BenchmarkDocument {
+    @Indexable(isKey = true)
+    private String id;
+    @Indexable(highlight = true)
+    private String title;
+    @Indexable(highlight = true)
+    private String body;
+    @Indexable(stringIndexType = IndexType.EXACT)
+    private String category;
+    private long views;
+    private double price;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public void setBody(String body) {
+        this.body = body;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public void setCategory(String category) {
+        this.category = category;
+    }
+
+    public long getViews() {
+        return views;
+    }
+
+    public void setViews(long views) {
+        this.views = views;
+    }
+
+    public double getPrice() {
+        return price;
+    }
+
+    public void setPrice(double price) {
+        this.price = price;
+    }
+}
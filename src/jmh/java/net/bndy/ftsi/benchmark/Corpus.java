@@ -0,0 +1,83 @@
+package net.bndy.ftsi.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates the same synthetic documents for the same seed, so results are comparable between versions.
+ * Words are drawn from a generated vocabulary with a skewed distribution, a few words are common and most are rare.
+ */
+public class Corpus {
+
+    public static final long DEFAULT_SEED = 20180314L;
+    public static final int CATEGORIES = 20;
+
+    private final Random random;
+    private final String[] vocabulary;
+
+    public Corpus(long seed, int vocabularySize) {
+        this.random = new Random(seed);
+        this.vocabulary = new String[vocabularySize];
+        for (int i = 0; i < vocabularySize; i++) {
+            StringBuilder word = new StringBuilder();
+            int length = 3 + this.random.nextInt(8);
+            for (int j = 0; j < length; j++) {
+                word.append((char) ('a' + this.random.nextInt(26)));
+            }
+            this.vocabulary[i] = word.toString();
+        }
+    }
+
+    public Corpus() {
+        this(DEFAULT_SEED, 10000);
+    }
+
+    /**
+     * @param rank the rank of the word, 0 is the most common
+     * @return the word
+     */
+    public String word(int rank) {
+        return this.vocabulary[rank % this.vocabulary.length];
+    }
+
+    public String category(int rank) {
+        return "category-" + (rank % CATEGORIES);
+    }
+
+    public BenchmarkDocument next(int id, int titleWords, int bodyWords) {
+        BenchmarkDocument document = new BenchmarkDocument();
+        document.setId("doc-" + id);
+        document.setTitle(this.text(titleWords));
+        document.setBody(this.text(bodyWords));
+        document.setCategory(this.category(this.skewed(CATEGORIES)));
+        document.setViews(this.random.nextInt(1000000));
+        document.setPrice(this.random.nextInt(100000) / 100.0);
+        return document;
+    }
+
+    public List<BenchmarkDocument> generate(int count, int titleWords, int bodyWords) {
+        List<BenchmarkDocument> documents = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            documents.add(this.next(i, titleWords, bodyWords));
+        }
+        return documents;
+    }
+
+    private String text(int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                text.append(i % 15 == 0 ? ". " : " ");
+            }
+            text.append(this.vocabulary[this.skewed(this.vocabulary.length)]);
+        }
+        return text.toString();
+    }
+
+    private int skewed(int bound) {
+        // the cube of a uniform value favors low ranks
+        double value = this.random.nextDouble();
+        return (int) (value * value * value * bound);
+    }
+}
@@ -0,0 +1,96 @@
+package net.bndy.ftsi.benchmark;
+
+import net.bndy.ftsi.DirectoryFactory;
+import net.bndy.ftsi.IndexService;
+import net.bndy.lib.IOHelper;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures bulk ingest into an empty catalog and upserts into a loaded catalog.
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class IndexBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Documents {
+        @Param({"10000"})
+        public int docCount;
+
+        @Param({"100"})
+        public int bodyWords;
+
+        @Param({"ram", "fs"})
+        public String directory;
+
+        List<BenchmarkDocument> documents;
+
+        @Setup(Level.Trial)
+        public void generate() {
+            this.documents = new Corpus().generate(this.docCount, 8, this.bodyWords);
+        }
+
+        IndexService open(String dataPath) {
+            return new IndexService(dataPath, "ram".equals(this.directory) ? DirectoryFactory.ram() : DirectoryFactory.fs());
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class EmptyIndex {
+        IndexService service;
+        String dataPath;
+
+        @Setup(Level.Invocation)
+        public void open(Documents documents) throws Exception {
+            this.dataPath = Files.createTempDirectory("ftsi-jmh").toString();
+            this.service = documents.open(this.dataPath);
+        }
+
+        @TearDown(Level.Invocation)
+        public void close() {
+            this.service.close();
+            IOHelper.forceDelete(this.dataPath);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class LoadedIndex {
+        IndexService service;
+        String dataPath;
+        List<BenchmarkDocument> documents;
+        int next;
+
+        @Setup(Level.Trial)
+        public void open(Documents documents) throws Exception {
+            this.dataPath = Files.createTempDirectory("ftsi-jmh").toString();
+            this.service = documents.open(this.dataPath);
+            this.documents = documents.documents;
+            this.service.bulkIndex(this.documents);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            this.service.close();
+            IOHelper.forceDelete(this.dataPath);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long bulkIndex(EmptyIndex index, Documents documents) {
+        return index.service.bulkIndex(documents.documents);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void upsert(LoadedIndex index) throws Exception {
+        index.service.updateIndex(index.documents.get(index.next++ % index.documents.size()));
+    }
+}
@@ -0,0 +1,93 @@
+package net.bndy.ftsi.benchmark;
+
+import net.bndy.ftsi.DirectoryFactory;
+import net.bndy.ftsi.IndexService;
+import net.bndy.ftsi.SearchOptions;
+import net.bndy.ftsi.SearchResult;
+import net.bndy.lib.IOHelper;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures keyword searches at several page depths, filtered searches, highlighting and materialization of items.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SearchBenchmark {
+
+    private static final int PAGE_SIZE = 10;
+    private static final int QUERIES = 64;
+
+    @Param({"10000"})
+    public int docCount;
+
+    @Param({"100"})
+    public int bodyWords;
+
+    @Param({"1", "10", "100"})
+    public int page;
+
+    @Param({"false", "true"})
+    public boolean highlight;
+
+    private IndexService service;
+    private String dataPath;
+    private String[] queries;
+    private Map<String, Object> andCondition;
+    private SearchOptions options;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Corpus corpus = new Corpus();
+        this.dataPath = Files.createTempDirectory("ftsi-jmh").toString();
+        this.service = new IndexService(this.dataPath, DirectoryFactory.mmap(true));
+        this.service.bulkIndex(corpus.generate(this.docCount, 8, this.bodyWords));
+        this.service.refresh(BenchmarkDocument.class);
+
+        // common words match enough items to reach deep pages
+        this.queries = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            this.queries[i] = corpus.word(i % 8) + " " + corpus.word(8 + i);
+        }
+        this.andCondition = Collections.singletonMap("category", corpus.category(0));
+        this.options = this.highlight ? new SearchOptions().highlight("title", "body") : null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.service.close();
+        IOHelper.forceDelete(this.dataPath);
+    }
+
+    @Benchmark
+    public SearchResult<BenchmarkDocument> keywordSearch() {
+        return this.service.search(this.nextQuery(), BenchmarkDocument.class, null, this.page, PAGE_SIZE, this.options);
+    }
+
+    @Benchmark
+    public SearchResult<BenchmarkDocument> filteredSearch() {
+        return this.service.search(this.nextQuery(), BenchmarkDocument.class, this.andCondition, this.page, PAGE_SIZE,
+            this.options);
+    }
+
+    /**
+     * Loads a large page of all items, dominated by reading stored fields into entities.
+     */
+    @Benchmark
+    public SearchResult<BenchmarkDocument> materialize() {
+        return this.service.search(null, BenchmarkDocument.class, null, this.page, 100, (SearchOptions) null);
+    }
+
+    private String nextQuery() {
+        return this.queries[this.next++ % QUERIES];
+    }
+}
@@ -0,0 +1,11 @@
+package net.bndy.ftsi;
+
+/**
+ * When an asynchronous index operation is acknowledged.
+ */
+public enum AckMode {
+    /** Completed once the change is visible to searches */
+    VISIBLE,
+    /** Completed once the change is committed to disk, it is visible to searches too */
+    COMMITTED,
+}
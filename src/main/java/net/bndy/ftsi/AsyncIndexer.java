@@ -0,0 +1,187 @@
+package net.bndy.ftsi;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded queues of index operations, each drained by a dedicated indexer thread.
+ * Operations are routed to a queue by their catalog, so the operations of a catalog run in the order submitted.
+ * Submitting blocks when the queue is full, so producers can not run ahead of indexing.
+ * Operations drained together share one refresh or commit per catalog before their futures complete.
+ */
+class AsyncIndexer implements Closeable {
+
+    private static final int MAX_DRAIN = 1000;
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+
+    private final List<BlockingQueue<Operation>> queues = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean closing;
+
+    /**
+     * @param queueCapacity  the total capacity, shared evenly by the queues of the threads
+     * @param indexerThreads the number of indexer threads
+     */
+    AsyncIndexer(int queueCapacity, int indexerThreads) {
+        int capacity = Math.max(1, (queueCapacity + indexerThreads - 1) / indexerThreads);
+        for (int i = 0; i < indexerThreads; i++) {
+            BlockingQueue<Operation> queue = new ArrayBlockingQueue<>(capacity);
+            Thread thread = new Thread(() -> this.run(queue), "ftsi-indexer-" + i);
+            thread.setDaemon(true);
+            this.queues.add(queue);
+            this.threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * @param route   the name of the class the operation changes, operations of the same class run in order
+     * @param task    the operation
+     * @param ackMode when the returned future completes
+     */
+    CompletableFuture<Void> submit(String route, Task task, AckMode ackMode) {
+        Operation operation = new Operation(task, ackMode == null ? AckMode.VISIBLE : ackMode);
+        if (this.closing) {
+            operation.future.completeExceptionally(new IllegalStateException("The index service has been closed."));
+            return operation.future;
+        }
+        try {
+            this.queues.get(Math.floorMod(route.hashCode(), this.queues.size())).put(operation);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            operation.future.completeExceptionally(ex);
+        }
+        return operation.future;
+    }
+
+    int getQueueSize() {
+        int size = 0;
+        for (BlockingQueue<Operation> queue : this.queues) {
+            size += queue.size();
+        }
+        return size;
+    }
+
+    private void run(BlockingQueue<Operation> queue) {
+        List<Operation> operations = new ArrayList<>();
+        while (true) {
+            Operation first;
+            try {
+                first = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                first = null;
+            }
+            if (first == null) {
+                if (this.closing && queue.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+
+            operations.clear();
+            operations.add(first);
+            queue.drainTo(operations, MAX_DRAIN - 1);
+            this.process(operations);
+        }
+    }
+
+    private void process(List<Operation> operations) {
+        Set<IndexCatalog> toRefresh = new HashSet<>();
+        Set<IndexCatalog> toCommit = new HashSet<>();
+        for (Operation operation : operations) {
+            try {
+                operation.catalogs = operation.task.run();
+                for (IndexCatalog catalog : operation.catalogs) {
+                    toRefresh.add(catalog);
+                    if (operation.ackMode == AckMode.COMMITTED) {
+                        toCommit.add(catalog);
+                    }
+                }
+            } catch (Throwable ex) {
+                operation.future.completeExceptionally(ex);
+            }
+        }
+
+        Map<IndexCatalog, Throwable> failures = new HashMap<>();
+        for (IndexCatalog catalog : toCommit) {
+            try {
+                catalog.commit();
+            } catch (Throwable ex) {
+                failures.put(catalog, ex);
+            }
+        }
+        for (IndexCatalog catalog : toRefresh) {
+            try {
+                catalog.refresh();
+            } catch (Throwable ex) {
+                failures.putIfAbsent(catalog, ex);
+            }
+        }
+
+        for (Operation operation : operations) {
+            if (operation.future.isDone()) {
+                continue;
+            }
+            Throwable failure = null;
+            for (IndexCatalog catalog : operation.catalogs) {
+                failure = failures.get(catalog);
+                if (failure != null) {
+                    break;
+                }
+            }
+            if (failure == null) {
+                operation.future.complete(null);
+            } else {
+                operation.future.completeExceptionally(failure);
+            }
+        }
+    }
+
+    /**
+     * Stops accepting operations and waits for the queued ones to be processed.
+     */
+    @Override
+    public void close() {
+        this.closing = true;
+        for (Thread thread : this.threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        // operations queued while the indexer threads were stopping
+        List<Operation> remaining = new ArrayList<>();
+        for (BlockingQueue<Operation> queue : this.queues) {
+            queue.drainTo(remaining);
+        }
+        for (Operation operation : remaining) {
+            operation.future.completeExceptionally(new IllegalStateException("The index service has been closed."));
+        }
+    }
+
+    /**
+     * An index operation, returns the catalogs it changed.
+     */
+    interface Task {
+        Collection<IndexCatalog> run() throws Exception;
+    }
+
+    private static class Operation {
+        private final Task task;
+        private final AckMode ackMode;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private Collection<IndexCatalog> catalogs = Collections.emptyList();
+
+        private Operation(Task task, AckMode ackMode) {
+            this.task = task;
+            this.ackMode = ackMode;
+        }
+    }
+}
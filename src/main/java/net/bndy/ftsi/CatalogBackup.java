@@ -0,0 +1,243 @@
+package net.bndy.ftsi;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Copies the files of a pinned commit point to a backup folder or a follower, and back.
+ * Index files are never modified once written, so a file already in the backup with the same checksum is skipped,
+ * which makes every backup after the first one incremental.
+ */
+class CatalogBackup {
+
+    private CatalogBackup() {
+    }
+
+    /**
+     * Copies the files of the commit to the target folder, the files the commit does not refer to are removed after.
+     * The segments file is written last, so an interrupted backup still holds the previous complete commit.
+     *
+     * @param commit    the pinned commit
+     * @param target    the backup folder of the catalog
+     * @param hardLinks whether to link the files instead of copying them when the catalog is on the same file system
+     */
+    static void backup(IndexCommit commit, Path target, boolean hardLinks) throws IOException {
+        Directory source = commit.getDirectory();
+        Path sourcePath = hardLinks ? getPath(source) : null;
+        Collection<String> files = commit.getFileNames();
+        String segmentsFile = commit.getSegmentsFileName();
+
+        Files.createDirectories(target);
+        try (FSDirectory backup = FSDirectory.open(target)) {
+            Set<String> existing = new HashSet<>(Arrays.asList(backup.listAll()));
+            List<String> written = new ArrayList<>();
+            for (String file : files) {
+                if (!file.equals(segmentsFile) && !isSame(source, backup, existing, file)) {
+                    copy(source, sourcePath, backup, target, existing, file);
+                    written.add(file);
+                }
+            }
+            backup.sync(written);
+            if (!isSame(source, backup, existing, segmentsFile)) {
+                copy(source, sourcePath, backup, target, existing, segmentsFile);
+                backup.sync(Collections.singleton(segmentsFile));
+            }
+            backup.syncMetaData();
+
+            // older segments files go first, so no commit in the backup ever refers to a removed file
+            Set<String> kept = new HashSet<>(files);
+            for (String file : backup.listAll()) {
+                if (file.startsWith(IndexFileNames.SEGMENTS) && !kept.contains(file)) {
+                    backup.deleteFile(file);
+                }
+            }
+            for (String file : backup.listAll()) {
+                if (!kept.contains(file)) {
+                    backup.deleteFile(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the files of a commit to the directory of a follower, the files it has already are skipped.
+     * Files of older commits are kept for the readers opened on them, see {@link #deleteUnreferenced(Directory)}.
+     * Nothing is copied if the commit does not follow the last commit of the follower, see {@link #follows}.
+     *
+     * @param source the directory holding the commit
+     * @param commit the commit, its segments file is copied last
+     * @param target the directory of the follower
+     * @return the number of files copied, -1 if the commit does not follow the last commit of the follower
+     */
+    static int replicate(Directory source, SegmentInfos commit, Directory target) throws IOException {
+        if (!follows(commit, target)) {
+            return -1;
+        }
+        String segmentsFile = commit.getSegmentsFileName();
+        Set<String> existing = new HashSet<>(Arrays.asList(target.listAll()));
+        List<String> written = new ArrayList<>();
+        for (String file : commit.files(true)) {
+            if (!file.equals(segmentsFile) && !isSame(source, target, existing, file)) {
+                copy(source, null, target, null, existing, file);
+                written.add(file);
+            }
+        }
+        target.sync(written);
+        int copied = written.size();
+        if (!isSame(source, target, existing, segmentsFile)) {
+            copy(source, null, target, null, existing, segmentsFile);
+            target.sync(Collections.singleton(segmentsFile));
+            copied++;
+        }
+        target.syncMetaData();
+        return copied;
+    }
+
+    /**
+     * A leader restored from a backup goes back to an older commit and names its new segments as it did before,
+     * so the files of the follower may have the names of other files of the leader.
+     *
+     * @return whether the commit is the last commit of the directory or a later one of the same index
+     */
+    private static boolean follows(SegmentInfos commit, Directory target) throws IOException {
+        if (!DirectoryReader.indexExists(target)) {
+            return true;
+        }
+        SegmentInfos last = SegmentInfos.readLatestCommit(target);
+        if (commit.getGeneration() < last.getGeneration()
+            || commit.getGeneration() == last.getGeneration() && !Arrays.equals(commit.getId(), last.getId())) {
+            return false;
+        }
+        Map<String, byte[]> segments = new HashMap<>();
+        for (SegmentCommitInfo segment : last) {
+            segments.put(segment.info.name, segment.info.getId());
+        }
+        for (SegmentCommitInfo segment : commit) {
+            byte[] id = segments.get(segment.info.name);
+            if (id != null && !Arrays.equals(id, segment.info.getId())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Deletes all files of the directory but the write lock.
+     */
+    static void clear(Directory directory) throws IOException {
+        for (String file : directory.listAll()) {
+            if (!file.equals(IndexWriter.WRITE_LOCK_NAME)) {
+                directory.deleteFile(file);
+            }
+        }
+    }
+
+    /**
+     * Deletes the files the last commit of the directory does not refer to,
+     * the readers still opened on older commits keep reading the deleted files.
+     */
+    static void deleteUnreferenced(Directory directory) throws IOException {
+        Set<String> kept = new HashSet<>(SegmentInfos.readLatestCommit(directory).files(true));
+        for (String file : directory.listAll()) {
+            if (!kept.contains(file) && !file.equals(IndexWriter.WRITE_LOCK_NAME)) {
+                directory.deleteFile(file);
+            }
+        }
+    }
+
+    /**
+     * @param source the backup folder of a catalog
+     * @return whether the folder holds a complete backup
+     */
+    static boolean exists(Path source) {
+        if (!Files.isDirectory(source)) {
+            return false;
+        }
+        try (FSDirectory backup = FSDirectory.open(source)) {
+            return DirectoryReader.indexExists(backup);
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Replaces all files of the target directory with the backup, the target MUST NOT be opened by a writer.
+     *
+     * @param source the backup folder of the catalog
+     * @param target the directory of the catalog
+     */
+    static void restore(Path source, Directory target) throws IOException {
+        try (FSDirectory backup = FSDirectory.open(source)) {
+            if (!DirectoryReader.indexExists(backup)) {
+                throw new IOException("No backup found in " + source);
+            }
+            clear(target);
+
+            List<String> files = new ArrayList<>();
+            List<String> segmentsFiles = new ArrayList<>();
+            for (String file : backup.listAll()) {
+                (file.startsWith(IndexFileNames.SEGMENTS) ? segmentsFiles : files).add(file);
+            }
+            for (String file : files) {
+                target.copyFrom(backup, file, file, IOContext.DEFAULT);
+            }
+            target.sync(files);
+            for (String file : segmentsFiles) {
+                target.copyFrom(backup, file, file, IOContext.DEFAULT);
+            }
+            target.sync(segmentsFiles);
+            target.syncMetaData();
+        }
+    }
+
+    private static boolean isSame(Directory source, Directory backup, Set<String> existing, String file)
+        throws IOException {
+        if (!existing.contains(file) || source.fileLength(file) != backup.fileLength(file)) {
+            return false;
+        }
+        return checksum(source, file) == checksum(backup, file);
+    }
+
+    private static long checksum(Directory directory, String file) throws IOException {
+        try (IndexInput input = directory.openInput(file, IOContext.READONCE)) {
+            return CodecUtil.retrieveChecksum(input);
+        }
+    }
+
+    private static void copy(Directory source, Path sourcePath, Directory backup, Path target, Set<String> existing,
+                             String file) throws IOException {
+        if (existing.contains(file)) {
+            backup.deleteFile(file);
+        }
+        if (sourcePath != null) {
+            try {
+                Files.createLink(target.resolve(file), sourcePath.resolve(file));
+                return;
+            } catch (IOException | UnsupportedOperationException ex) {
+                // different file systems or links not supported, fall back to a copy
+                Files.deleteIfExists(target.resolve(file));
+            }
+        }
+        backup.copyFrom(source, file, file, IOContext.DEFAULT);
+    }
+
+    private static Path getPath(Directory directory) {
+        Directory unwrapped = FilterDirectory.unwrap(directory);
+        return unwrapped instanceof FSDirectory ? ((FSDirectory) unwrapped).getDirectory() : null;
+    }
+}
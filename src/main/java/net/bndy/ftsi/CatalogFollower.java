@@ -0,0 +1,123 @@
+package net.bndy.ftsi;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Replicates the catalogs of a follower from the commits its leader published to the transport.
+ */
+class CatalogFollower {
+
+    private final ReplicationTransport transport;
+    private final CatalogRegistry catalogs;
+    private final Supplier<MetricsListener> metrics;
+    private final Set<String> emptyReplicas = ConcurrentHashMap.newKeySet();
+
+    CatalogFollower(ReplicationTransport transport, CatalogRegistry catalogs, Supplier<MetricsListener> metrics) {
+        this.transport = transport;
+        this.catalogs = catalogs;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Opens a read-only catalog, it is empty until the first commit is replicated.
+     */
+    IndexCatalog open(String name, Directory directory) throws IOException {
+        if (!DirectoryReader.indexExists(directory)) {
+            directory.close();
+            directory = new RAMDirectory();
+            try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+                writer.commit();
+            }
+            this.emptyReplicas.add(name);
+        }
+        return this.catalogs.openReplica(name, directory);
+    }
+
+    /**
+     * Copies the commits published since the last replication and reopens searchers on them.
+     *
+     * @return the number of catalogs updated
+     */
+    synchronized int replicate() {
+        int replicated = 0;
+        try {
+            for (String catalogName : this.transport.getCatalogs()) {
+                if (this.replicate(catalogName)) {
+                    replicated++;
+                }
+            }
+        } catch (IOException ex) {
+            this.metrics.get().onError(null, "replicate", ex);
+        }
+        return replicated;
+    }
+
+    private boolean replicate(String catalogName) {
+        IndexCatalog catalog = this.catalogs.get(catalogName);
+        if (catalog == null) {
+            return false;
+        }
+        try {
+            if (!this.emptyReplicas.contains(catalogName)) {
+                long generation = this.transport.fetch(catalogName, catalog.getDirectory());
+                if (generation == ReplicationTransport.RESET) {
+                    // the leader has been restored, its segments may have the names of other ones here
+                    this.emptyReplicas.add(catalogName);
+                } else if (generation < 0) {
+                    return false;
+                } else {
+                    catalog.refresh();
+                    CatalogBackup.deleteUnreferenced(catalog.getDirectory());
+                    return true;
+                }
+            }
+
+            // only the follower replaces its catalogs, so the current one is the catalog got above
+            if (this.catalogs.replace(catalogName, current -> this.fetchAll(catalogName, current)) == catalog) {
+                return false;
+            }
+        } catch (IOException ex) {
+            this.metrics.get().onError(catalogName, "replicate", ex);
+            return false;
+        }
+        try {
+            // the searchers acquired before stay usable until released
+            catalog.close();
+        } catch (IOException ex) {
+            this.metrics.get().onError(catalogName, "replicate", ex);
+        }
+        return true;
+    }
+
+    /**
+     * Copies the commit whole to the cleared directory of the catalog and opens a catalog on it.
+     *
+     * @return the new catalog, the current one if nothing has been published
+     */
+    private IndexCatalog fetchAll(String catalogName, IndexCatalog current) throws IOException {
+        Directory directory = this.catalogs.openDirectory(catalogName);
+        try {
+            CatalogBackup.clear(directory);
+            if (this.transport.fetch(catalogName, directory) < 0) {
+                directory.close();
+                return current;
+            }
+        } catch (IOException ex) {
+            directory.close();
+            throw ex;
+        }
+        // the directory is closed by the catalog if it fails to open
+        IndexCatalog opened = this.catalogs.openReplica(catalogName, directory);
+        this.emptyReplicas.remove(catalogName);
+        return opened;
+    }
+}
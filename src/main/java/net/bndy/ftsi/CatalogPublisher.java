@@ -0,0 +1,139 @@
+package net.bndy.ftsi;
+
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.store.AlreadyClosedException;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Publishes the commits of the catalogs of a leader to the transport to its followers.
+ * Commits are published on the publisher thread, so they do not wait for the transport.
+ */
+class CatalogPublisher {
+
+    private final ReplicationTransport transport;
+    private final CatalogRegistry catalogs;
+    private final Supplier<MetricsListener> metrics;
+    private final Set<IndexCatalog> pending = ConcurrentHashMap.newKeySet();
+    private ExecutorService executor;
+    private boolean closed;
+
+    CatalogPublisher(ReplicationTransport transport, CatalogRegistry catalogs, Supplier<MetricsListener> metrics) {
+        this.transport = transport;
+        this.catalogs = catalogs;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Publishes the last commit of the catalog in background, the commits made while a catalog is queued
+     * are published at once.
+     */
+    void schedule(IndexCatalog catalog) {
+        if (!this.pending.add(catalog)) {
+            return;
+        }
+        try {
+            this.getExecutor().execute(() -> {
+                this.pending.remove(catalog);
+                this.publish(catalog, false);
+            });
+        } catch (RejectedExecutionException ex) {
+            // the publisher is closing, it publishes the last commits itself
+            this.pending.remove(catalog);
+        }
+    }
+
+    /**
+     * Waits until the commits made before are published.
+     */
+    void awaitPublished() {
+        ExecutorService executor;
+        synchronized (this) {
+            executor = this.executor;
+        }
+        if (executor != null) {
+            try {
+                // the publisher runs the queued publications in order
+                CompletableFuture.runAsync(() -> { }, executor).join();
+            } catch (RejectedExecutionException ex) {
+                // closed meanwhile, the commits have been published
+            }
+        }
+    }
+
+    /**
+     * @param commit whether to commit pending changes first, or to publish the last commit
+     */
+    void publish(IndexCatalog catalog, boolean commit) {
+        if (!catalog.tryIncRef()) {
+            // replaced by a restore, the restored catalog is published instead
+            return;
+        }
+        try {
+            IndexCommit snapshot = commit ? catalog.snapshot() : catalog.pinLastCommit();
+            this.transport.publish(catalog.getName(), snapshot, () -> {
+                try {
+                    catalog.releaseSnapshot(snapshot);
+                } catch (AlreadyClosedException ex) {
+                    // the catalog has been closed, its files are not kept any more
+                } catch (IOException ex) {
+                    this.metrics.get().onError(catalog.getName(), "publish", ex);
+                }
+            });
+        } catch (IOException ex) {
+            this.metrics.get().onError(catalog.getName(), "publish", ex);
+        } finally {
+            this.catalogs.decRef(catalog);
+        }
+    }
+
+    /**
+     * Waits for the queued publications, then commits and publishes the catalogs with a writer.
+     *
+     * @param opened the opened catalogs
+     */
+    void close(Collection<IndexCatalog> opened) {
+        ExecutorService executor;
+        synchronized (this) {
+            this.closed = true;
+            executor = this.executor;
+            this.executor = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (IndexCatalog catalog : opened) {
+            if (!catalog.isReadOnly()) {
+                this.publish(catalog, true);
+            }
+        }
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (this.closed) {
+            throw new RejectedExecutionException("The publisher has been closed.");
+        }
+        if (this.executor == null) {
+            this.executor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "ftsi-publisher");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return this.executor;
+    }
+}
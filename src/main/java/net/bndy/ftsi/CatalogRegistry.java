@@ -0,0 +1,58 @@
+package net.bndy.ftsi;
+
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+
+/**
+ * The catalogs opened by an {@link IndexService}, for the helpers which back them up, restore and replicate them.
+ */
+interface CatalogRegistry {
+
+    /**
+     * @return the catalog, it is opened if it is not yet, null if it can not be opened
+     */
+    IndexCatalog get(String name);
+
+    /**
+     * Holds a reference of the catalog, it MUST be released by {@link #decRef(IndexCatalog)}.
+     * A catalog replaced meanwhile is swapped for the new one.
+     */
+    IndexCatalog incRef(IndexCatalog catalog);
+
+    void decRef(IndexCatalog catalog);
+
+    /**
+     * Opens the directory of a catalog, it is kept by the catalog opened on it.
+     */
+    Directory openDirectory(String name) throws IOException;
+
+    /**
+     * Opens a catalog with a writer on the directory, the directory is closed with the catalog.
+     */
+    IndexCatalog open(String name, Directory directory) throws IOException;
+
+    /**
+     * Opens a read-only catalog on the directory holding a commit replicated from a leader.
+     */
+    IndexCatalog openReplica(String name, Directory directory) throws IOException;
+
+    /**
+     * Replaces a catalog under the lock of its entry, so it is not opened by others meanwhile.
+     * If the replacement fails, a closed current catalog is dropped and opened again on its next use.
+     *
+     * @return the catalog kept after the replacement
+     */
+    IndexCatalog replace(String name, Replacement replacement) throws IOException;
+
+    /**
+     * Opens the catalog replacing the current one.
+     */
+    interface Replacement {
+        /**
+         * @param current the current catalog, null if it is not opened
+         * @return the new catalog, the current one to keep it
+         */
+        IndexCatalog open(IndexCatalog current) throws IOException;
+    }
+}
@@ -0,0 +1,95 @@
+package net.bndy.ftsi;
+
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.Supplier;
+
+/**
+ * Backs up the catalogs of an {@link IndexService} while indexing goes on, and replaces them with their backups.
+ * The files are copied by {@link CatalogBackup}.
+ */
+class CatalogSnapshots {
+
+    private final CatalogRegistry catalogs;
+    private final Supplier<MetricsListener> metrics;
+
+    CatalogSnapshots(CatalogRegistry catalogs, Supplier<MetricsListener> metrics) {
+        this.catalogs = catalogs;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Commits pending changes and backs up the last commit of the catalog.
+     *
+     * @param catalogName the catalog name
+     * @param target      the backup folder of the catalog
+     * @param hardLinks   whether to link the files instead of copying them
+     * @return the generation of the commit backed up, -1 if failed
+     */
+    long snapshot(String catalogName, Path target, boolean hardLinks) {
+        IndexCatalog opened = this.catalogs.get(catalogName);
+        if (opened == null) {
+            return -1;
+        }
+
+        // the writer keeps the pinned commit until it is released
+        IndexCatalog catalog = this.catalogs.incRef(opened);
+        IndexCommit commit = null;
+        try {
+            commit = catalog.snapshot();
+            CatalogBackup.backup(commit, target, hardLinks);
+            return commit.getGeneration();
+        } catch (IOException ex) {
+            this.metrics.get().onError(catalogName, "snapshot", ex);
+        } finally {
+            if (commit != null) {
+                try {
+                    catalog.releaseSnapshot(commit);
+                } catch (IOException ex) {
+                    this.metrics.get().onError(catalogName, "snapshot", ex);
+                }
+            }
+            this.catalogs.decRef(catalog);
+        }
+        return -1;
+    }
+
+    /**
+     * Replaces the catalog with a backup, the current catalog is closed first since its writer locks the directory.
+     * Changes made to the catalog while it is restored are lost.
+     *
+     * @param catalogName the catalog name
+     * @param source      the backup folder of the catalog
+     * @return the restored catalog, null if failed
+     */
+    IndexCatalog restore(String catalogName, Path source) {
+        if (!CatalogBackup.exists(source)) {
+            this.metrics.get().onError(catalogName, "restore", new IOException("No backup found in " + source));
+            return null;
+        }
+
+        try {
+            return this.catalogs.replace(catalogName, current -> {
+                if (current != null) {
+                    current.close();
+                    // the directory is locked by its writer until the writes in flight are done
+                    current.awaitClosed();
+                }
+                Directory directory = this.catalogs.openDirectory(catalogName);
+                try {
+                    CatalogBackup.restore(source, directory);
+                } catch (IOException ex) {
+                    directory.close();
+                    throw ex;
+                }
+                return this.catalogs.open(catalogName, directory);
+            });
+        } catch (IOException ex) {
+            this.metrics.get().onError(catalogName, "restore", ex);
+        }
+        return null;
+    }
+}
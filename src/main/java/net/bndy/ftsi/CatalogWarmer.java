@@ -0,0 +1,71 @@
+package net.bndy.ftsi;
+
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+
+import java.io.IOException;
+
+/**
+ * Reads through the term dictionaries, norms and doc values of a segment, so the first searches on it
+ * do not pay for loading them. With {@link IndexService#setWarmUpTerms(boolean)} it is also the warmer of merged segments,
+ * which are then warm before searchers see them.
+ */
+class CatalogWarmer implements IndexWriter.IndexReaderWarmer {
+
+    static final CatalogWarmer INSTANCE = new CatalogWarmer();
+
+    private CatalogWarmer() {
+    }
+
+    @Override
+    public void warm(LeafReader reader) throws IOException {
+        for (FieldInfo field : reader.getFieldInfos()) {
+            if (field.getIndexOptions() != IndexOptions.NONE) {
+                Terms terms = reader.terms(field.name);
+                if (terms != null) {
+                    TermsEnum termsEnum = terms.iterator();
+                    while (termsEnum.next() != null) {
+                        // loads the blocks of the term dictionary
+                    }
+                }
+                if (field.hasNorms()) {
+                    exhaust(reader.getNormValues(field.name));
+                }
+            }
+            if (field.getDocValuesType() != DocValuesType.NONE) {
+                exhaust(getDocValues(reader, field));
+            }
+        }
+    }
+
+    private static DocIdSetIterator getDocValues(LeafReader reader, FieldInfo field) throws IOException {
+        switch (field.getDocValuesType()) {
+            case NUMERIC:
+                return reader.getNumericDocValues(field.name);
+            case BINARY:
+                return reader.getBinaryDocValues(field.name);
+            case SORTED:
+                return reader.getSortedDocValues(field.name);
+            case SORTED_NUMERIC:
+                return reader.getSortedNumericDocValues(field.name);
+            case SORTED_SET:
+                return reader.getSortedSetDocValues(field.name);
+            default:
+                return null;
+        }
+    }
+
+    private static void exhaust(DocIdSetIterator iterator) throws IOException {
+        if (iterator != null) {
+            while (iterator.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+                // reads through the documents having values
+            }
+        }
+    }
+}
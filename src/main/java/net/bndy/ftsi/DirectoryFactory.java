@@ -0,0 +1,102 @@
+package net.bndy.ftsi;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NRTCachingDirectory;
+import org.apache.lucene.store.RAMDirectory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.Predicate;
+
+/**
+ * Opens the Lucene directory of a catalog. A directory is opened once per catalog and reused until the service is closed.
+ */
+@FunctionalInterface
+public interface DirectoryFactory {
+
+    /**
+     * @param path    the folder of the catalog in the data path
+     * @param catalog the catalog name
+     * @return the directory
+     */
+    Directory open(Path path, String catalog) throws IOException;
+
+    /**
+     * @return whether catalogs are stored in the data path, in-memory catalogs are lost when the service is closed
+     */
+    default boolean isPersistent() {
+        return true;
+    }
+
+    /**
+     * The best file system directory for the platform, the default.
+     */
+    static DirectoryFactory fs() {
+        return (path, catalog) -> FSDirectory.open(path);
+    }
+
+    /**
+     * Memory mapped directories.
+     *
+     * @param preload whether to load mapped files into physical memory when opened
+     */
+    static DirectoryFactory mmap(boolean preload) {
+        return mmap(catalog -> preload);
+    }
+
+    /**
+     * Memory mapped directories, hot catalogs are loaded into physical memory when opened.
+     *
+     * @param hotCatalogs tells whether a catalog is hot by its name
+     */
+    static DirectoryFactory mmap(Predicate<String> hotCatalogs) {
+        return (path, catalog) -> {
+            MMapDirectory directory = new MMapDirectory(path);
+            directory.setPreload(hotCatalogs.test(catalog));
+            return directory;
+        };
+    }
+
+    /**
+     * Keeps small segments flushed by near-real-time refreshes in memory until they are merged or committed,
+     * 5MB merged segments and 60MB in total at most.
+     *
+     * @param delegate the factory of the directories to wrap
+     */
+    static DirectoryFactory nrtCaching(DirectoryFactory delegate) {
+        return nrtCaching(delegate, 5, 60);
+    }
+
+    static DirectoryFactory nrtCaching(DirectoryFactory delegate, double maxMergeSizeMB, double maxCachedMB) {
+        return new DirectoryFactory() {
+            @Override
+            public Directory open(Path path, String catalog) throws IOException {
+                return new NRTCachingDirectory(delegate.open(path, catalog), maxMergeSizeMB, maxCachedMB);
+            }
+
+            @Override
+            public boolean isPersistent() {
+                return delegate.isPersistent();
+            }
+        };
+    }
+
+    /**
+     * Heap directories for ephemeral catalogs and tests, nothing is written to the data path.
+     */
+    static DirectoryFactory ram() {
+        return new DirectoryFactory() {
+            @Override
+            public Directory open(Path path, String catalog) {
+                return new RAMDirectory();
+            }
+
+            @Override
+            public boolean isPersistent() {
+                return false;
+            }
+        };
+    }
+}
@@ -0,0 +1,82 @@
+package net.bndy.ftsi;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Iterates the ids of all documents matching a query in index order, segment by segment.
+ * Nothing is scored, sorted or collected, so the memory does not grow with the number of matches.
+ */
+class DocIdIterator implements PrimitiveIterator.OfInt {
+
+    private final Weight weight;
+    private final List<LeafReaderContext> leaves;
+    private int leafIndex = -1;
+    private LeafReaderContext leaf;
+    private DocIdSetIterator docs;
+    private Bits liveDocs;
+    private int next = -1;
+
+    DocIdIterator(IndexSearcher searcher, Query query) throws IOException {
+        this.weight = searcher.createNormalizedWeight(query, false);
+        this.leaves = searcher.getIndexReader().leaves();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (this.next == -1) {
+            try {
+                this.next = this.advance();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        return this.next != DocIdSetIterator.NO_MORE_DOCS;
+    }
+
+    @Override
+    public int nextInt() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int doc = this.next;
+        this.next = -1;
+        return doc;
+    }
+
+    private int advance() throws IOException {
+        while (true) {
+            if (this.docs != null) {
+                int doc = this.docs.nextDoc();
+                // scorers do not skip deleted documents
+                while (doc != DocIdSetIterator.NO_MORE_DOCS && this.liveDocs != null && !this.liveDocs.get(doc)) {
+                    doc = this.docs.nextDoc();
+                }
+                if (doc != DocIdSetIterator.NO_MORE_DOCS) {
+                    return this.leaf.docBase + doc;
+                }
+                this.docs = null;
+            }
+            if (++this.leafIndex >= this.leaves.size()) {
+                return DocIdSetIterator.NO_MORE_DOCS;
+            }
+            this.leaf = this.leaves.get(this.leafIndex);
+            Scorer scorer = this.weight.scorer(this.leaf);
+            if (scorer != null) {
+                this.docs = scorer.iterator();
+                this.liveDocs = this.leaf.reader().getLiveDocs();
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package net.bndy.ftsi;
+
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.StoredFieldVisitor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * Loads stored fields of a document straight into an entity, only the fields the class declares are decoded,
+ * or only the projected ones if any.
+ */
+class EntityFieldVisitor extends StoredFieldVisitor {
+
+    private final IndexSchema schema;
+    private final Object entity;
+    private final Set<String> fields;
+    private int remaining;
+
+    EntityFieldVisitor(IndexSchema schema, Object entity) {
+        this(schema, entity, null);
+    }
+
+    /**
+     * @param fields the names of the fields to load, they MUST be loadable fields of the schema, null for all fields
+     */
+    EntityFieldVisitor(IndexSchema schema, Object entity, Set<String> fields) {
+        this.schema = schema;
+        this.entity = entity;
+        this.fields = fields;
+        this.remaining = fields == null ? schema.getLoadableFieldCount() : fields.size();
+    }
+
+    @Override
+    public Status needsField(FieldInfo fieldInfo) {
+        if (this.remaining <= 0) {
+            return Status.STOP;
+        }
+        if (this.fields != null) {
+            return this.fields.contains(fieldInfo.name) ? Status.YES : Status.NO;
+        }
+        IndexSchema.FieldMapping mapping = this.schema.getField(fieldInfo.name);
+        return mapping != null && mapping.isLoadable() ? Status.YES : Status.NO;
+    }
+
+    @Override
+    public void stringField(FieldInfo fieldInfo, byte[] value) {
+        this.remaining--;
+        this.schema.getField(fieldInfo.name).setString(this.entity, new String(value, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void intField(FieldInfo fieldInfo, int value) {
+        this.remaining--;
+        this.schema.getField(fieldInfo.name).setInt(this.entity, value);
+    }
+
+    @Override
+    public void longField(FieldInfo fieldInfo, long value) {
+        this.remaining--;
+        this.schema.getField(fieldInfo.name).setLong(this.entity, value);
+    }
+
+    @Override
+    public void floatField(FieldInfo fieldInfo, float value) {
+        this.remaining--;
+        this.schema.getField(fieldInfo.name).setFloat(this.entity, value);
+    }
+
+    @Override
+    public void doubleField(FieldInfo fieldInfo, double value) {
+        this.remaining--;
+        this.schema.getField(fieldInfo.name).setDouble(this.entity, value);
+    }
+}
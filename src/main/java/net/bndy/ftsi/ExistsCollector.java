@@ -0,0 +1,36 @@
+package net.bndy.ftsi;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.CollectionTerminatedException;
+import org.apache.lucene.search.SimpleCollector;
+
+/**
+ * Tells whether any document matches, collecting stops at the first match without scoring.
+ */
+class ExistsCollector extends SimpleCollector {
+
+    private boolean found;
+
+    boolean isFound() {
+        return found;
+    }
+
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) {
+        if (this.found) {
+            // skips the remaining segments
+            throw new CollectionTerminatedException();
+        }
+    }
+
+    @Override
+    public void collect(int doc) {
+        this.found = true;
+        throw new CollectionTerminatedException();
+    }
+
+    @Override
+    public boolean needsScores() {
+        return false;
+    }
+}
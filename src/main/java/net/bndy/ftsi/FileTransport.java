@@ -0,0 +1,63 @@
+package net.bndy.ftsi;
+
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Replicates commits through a shared folder, see {@link ReplicationTransport#files(String)}.
+ */
+class FileTransport implements ReplicationTransport {
+
+    private final Path root;
+
+    FileTransport(Path root) {
+        this.root = root;
+    }
+
+    @Override
+    public void publish(String catalog, IndexCommit commit, Runnable release) throws IOException {
+        try {
+            CatalogBackup.backup(commit, this.root.resolve(catalog), false);
+        } finally {
+            release.run();
+        }
+    }
+
+    @Override
+    public long fetch(String catalog, Directory target) throws IOException {
+        Path source = this.root.resolve(catalog);
+        if (!CatalogBackup.exists(source)) {
+            return -1;
+        }
+        try (FSDirectory directory = FSDirectory.open(source)) {
+            SegmentInfos infos = SegmentInfos.readLatestCommit(directory);
+            int copied = CatalogBackup.replicate(directory, infos, target);
+            if (copied < 0) {
+                return RESET;
+            }
+            return copied == 0 ? -1 : infos.getGeneration();
+        }
+    }
+
+    @Override
+    public Set<String> getCatalogs() throws IOException {
+        Set<String> catalogs = new TreeSet<>();
+        if (Files.isDirectory(this.root)) {
+            try (DirectoryStream<Path> folders = Files.newDirectoryStream(this.root, Files::isDirectory)) {
+                for (Path folder : folders) {
+                    catalogs.add(folder.getFileName().toString());
+                }
+            }
+        }
+        return catalogs;
+    }
+}
@@ -0,0 +1,97 @@
+package net.bndy.ftsi;
+
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands commits of a leader to followers in the same process, see {@link ReplicationTransport#inProcess()}.
+ */
+class InProcessTransport implements ReplicationTransport {
+
+    private final ConcurrentMap<String, Revision> revisions = new ConcurrentHashMap<>();
+
+    @Override
+    public void publish(String catalog, IndexCommit commit, Runnable release) {
+        Revision previous = this.revisions.put(catalog, new Revision(commit, release));
+        if (previous != null) {
+            previous.decRef();
+        }
+    }
+
+    @Override
+    public long fetch(String catalog, Directory target) throws IOException {
+        Revision revision = this.acquire(catalog);
+        if (revision == null) {
+            return -1;
+        }
+        try {
+            int copied = CatalogBackup.replicate(revision.directory,
+                SegmentInfos.readCommit(revision.directory, revision.segmentsFile), target);
+            if (copied < 0) {
+                return RESET;
+            }
+            return copied == 0 ? -1 : revision.generation;
+        } finally {
+            revision.decRef();
+        }
+    }
+
+    @Override
+    public Set<String> getCatalogs() {
+        return Collections.unmodifiableSet(new HashSet<>(this.revisions.keySet()));
+    }
+
+    private Revision acquire(String catalog) {
+        while (true) {
+            Revision revision = this.revisions.get(catalog);
+            if (revision == null || revision.tryIncRef()) {
+                return revision;
+            }
+            // replaced and released meanwhile, the new one is published already
+        }
+    }
+
+    /**
+     * A published commit, it is released once it is replaced and no follower is copying it.
+     */
+    private static class Revision {
+        private final Directory directory;
+        private final String segmentsFile;
+        private final long generation;
+        private final Runnable release;
+        private final AtomicInteger refCount = new AtomicInteger(1);
+
+        Revision(IndexCommit commit, Runnable release) {
+            this.directory = commit.getDirectory();
+            this.segmentsFile = commit.getSegmentsFileName();
+            this.generation = commit.getGeneration();
+            this.release = release;
+        }
+
+        boolean tryIncRef() {
+            int count;
+            do {
+                count = this.refCount.get();
+                if (count <= 0) {
+                    return false;
+                }
+            } while (!this.refCount.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        void decRef() {
+            if (this.refCount.decrementAndGet() == 0) {
+                this.release.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package net.bndy.ftsi;
+
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.ThreadInterruptedException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Holds the long-lived Lucene resources of one catalog (one indexed class).
+ * The writer is thread-safe and shared by all callers for the life of the service,
+ * searchers are near-real-time and reused until the catalog changes.
+ * A catalog replicated from a leader is read-only, it has no writer and its searchers are reopened on new commits.
+ * The catalog is reference counted, so a catalog replaced by a restore is closed once the writes in flight are done.
+ */
+class IndexCatalog implements Closeable {
+
+    private final String name;
+    private final Directory directory;
+    private final IndexWriter writer;
+    private final SearcherManager searcherManager;
+    private final SnapshotDeletionPolicy snapshotPolicy;
+    private final Supplier<MetricsListener> metrics;
+    private final List<Runnable> commitListeners = new CopyOnWriteArrayList<>();
+    private final AtomicInteger refCount = new AtomicInteger(1);
+    private final AtomicBoolean closing = new AtomicBoolean();
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private volatile boolean changed;
+
+    IndexCatalog(String name, Directory directory, IndexWriterConfig config, SearcherFactory searcherFactory,
+                 Supplier<MetricsListener> metrics) throws IOException {
+        this.name = name;
+        this.directory = directory;
+        this.metrics = metrics;
+        this.snapshotPolicy = (SnapshotDeletionPolicy) config.getIndexDeletionPolicy();
+        try {
+            this.writer = new IndexWriter(directory, config);
+        } catch (IOException ex) {
+            directory.close();
+            throw ex;
+        }
+        try {
+            this.searcherManager = new SearcherManager(this.writer, searcherFactory);
+        } catch (IOException ex) {
+            this.writer.rollback();
+            directory.close();
+            throw ex;
+        }
+        this.addMetricsListener();
+    }
+
+    /**
+     * Opens a read-only catalog on the last commit of the directory.
+     */
+    IndexCatalog(String name, Directory directory, SearcherFactory searcherFactory, Supplier<MetricsListener> metrics)
+        throws IOException {
+        this.name = name;
+        this.directory = directory;
+        this.metrics = metrics;
+        this.writer = null;
+        this.snapshotPolicy = null;
+        try {
+            this.searcherManager = new SearcherManager(directory, searcherFactory);
+        } catch (IOException ex) {
+            directory.close();
+            throw ex;
+        }
+        this.addMetricsListener();
+    }
+
+    private void addMetricsListener() {
+        this.searcherManager.addListener(new ReferenceManager.RefreshListener() {
+            // refreshes of a searcher manager never run concurrently
+            private long start;
+
+            @Override
+            public void beforeRefresh() {
+                this.start = System.nanoTime();
+            }
+
+            @Override
+            public void afterRefresh(boolean didRefresh) {
+                if (didRefresh) {
+                    IndexCatalog.this.metrics.get().onRefresh(IndexCatalog.this.name, System.nanoTime() - this.start);
+                }
+            }
+        });
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Directory getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Keeps the catalog open until {@link #decRef()}.
+     *
+     * @return false if the catalog has been closed or is closing
+     */
+    boolean tryIncRef() {
+        while (!this.closing.get()) {
+            int count = this.refCount.get();
+            if (count <= 0) {
+                return false;
+            }
+            if (this.refCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Releases a reference, the catalog is closed with the last one.
+     */
+    void decRef() throws IOException {
+        if (this.refCount.decrementAndGet() == 0) {
+            try {
+                this.doClose();
+            } finally {
+                this.closed.countDown();
+            }
+        }
+    }
+
+    /**
+     * @return whether {@link #close()} has been called, the catalog is closed once the references in flight are released
+     */
+    boolean isClosing() {
+        return this.closing.get();
+    }
+
+    /**
+     * Waits until the catalog is closed, after {@link #close()} the writes in flight are waited for.
+     */
+    void awaitClosed() {
+        try {
+            this.closed.await();
+        } catch (InterruptedException ex) {
+            throw new ThreadInterruptedException(ex);
+        }
+    }
+
+    /**
+     * The writer MUST only be used while a reference is held, see {@link #tryIncRef()}.
+     *
+     * @throws IllegalStateException if the catalog is read-only
+     */
+    IndexWriter getWriter() {
+        if (writer == null) {
+            throw new IllegalStateException("The catalog " + name + " is read-only, it is replicated from a leader.");
+        }
+        return writer;
+    }
+
+    boolean isReadOnly() {
+        return writer == null;
+    }
+
+    /**
+     * Adds a listener run after each commit of the writer.
+     */
+    void addCommitListener(Runnable listener) {
+        commitListeners.add(listener);
+    }
+
+    /**
+     * Adds a listener notified whenever the searcher is refreshed, the changes before are visible once it is notified.
+     */
+    void addRefreshListener(ReferenceManager.RefreshListener listener) {
+        searcherManager.addListener(listener);
+    }
+
+    /**
+     * Marks the catalog as changed so the next {@link #acquire(boolean)} refreshes the searcher.
+     */
+    void markChanged() {
+        this.changed = true;
+    }
+
+    /**
+     * Acquires the current searcher, it MUST be released by {@link #release(IndexSearcher)}.
+     *
+     * @param refreshOnChange whether to refresh the searcher first if the catalog has been changed
+     */
+    IndexSearcher acquire(boolean refreshOnChange) throws IOException {
+        if (refreshOnChange && this.changed) {
+            this.refresh();
+        }
+        return searcherManager.acquire();
+    }
+
+    void release(IndexSearcher searcher) throws IOException {
+        searcherManager.release(searcher);
+    }
+
+    /**
+     * Refreshes the searcher, nothing is done if the catalog is closing.
+     */
+    void refresh() throws IOException {
+        if (!this.tryIncRef()) {
+            return;
+        }
+        try {
+            this.changed = false;
+            searcherManager.maybeRefreshBlocking();
+        } finally {
+            this.decRef();
+        }
+    }
+
+    void maybeRefresh() throws IOException {
+        if (this.changed && this.tryIncRef()) {
+            try {
+                this.changed = false;
+                if (!searcherManager.maybeRefresh()) {
+                    // another thread is refreshing, try again next time
+                    this.changed = true;
+                }
+            } finally {
+                this.decRef();
+            }
+        }
+    }
+
+    /**
+     * Commits pending changes, nothing is done if the catalog is closing since closing commits them.
+     */
+    void commit() throws IOException {
+        if (writer == null || !this.tryIncRef()) {
+            return;
+        }
+        try {
+            if (writer.hasUncommittedChanges()) {
+                long start = System.nanoTime();
+                writer.commit();
+                this.metrics.get().onCommit(this.name, System.nanoTime() - start);
+                for (Runnable listener : commitListeners) {
+                    listener.run();
+                }
+            }
+        } finally {
+            this.decRef();
+        }
+    }
+
+    /**
+     * Commits pending changes and pins the last commit point, its files are kept until {@link #releaseSnapshot(IndexCommit)}
+     * even though the writer goes on committing and merging.
+     */
+    IndexCommit snapshot() throws IOException {
+        this.getWriter();
+        this.commit();
+        try {
+            return snapshotPolicy.snapshot();
+        } catch (IllegalStateException ex) {
+            // nothing has been committed to a new catalog yet
+            writer.commit();
+            return snapshotPolicy.snapshot();
+        }
+    }
+
+    /**
+     * Pins the last commit point without committing, see {@link #snapshot()}.
+     */
+    IndexCommit pinLastCommit() throws IOException {
+        return snapshotPolicy.snapshot();
+    }
+
+    void releaseSnapshot(IndexCommit commit) throws IOException {
+        snapshotPolicy.release(commit);
+        writer.deleteUnusedFiles();
+    }
+
+    /**
+     * Releases the reference of the owner, the catalog is closed once the references in flight are released.
+     * Searchers acquired before stay usable until released.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closing.compareAndSet(false, true)) {
+            this.decRef();
+        }
+    }
+
+    private void doClose() throws IOException {
+        try {
+            searcherManager.close();
+        } finally {
+            try {
+                if (writer != null) {
+                    writer.close();
+                }
+            } finally {
+                directory.close();
+            }
+        }
+    }
+
+    /**
+     * An operation on the writer of a catalog.
+     */
+    interface WriterOperation {
+        void run(IndexWriter writer) throws IOException;
+    }
+}
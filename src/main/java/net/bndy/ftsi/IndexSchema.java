@@ -0,0 +1,491 @@
+package net.bndy.ftsi;
+
+import net.bndy.lib.ReflectionHelper;
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.IndexOptions;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The compiled indexing schema of a class, built once per class and cached for the life of the class.
+ * It holds the key field, the fields to index with their Lucene mapping and the handles to access them,
+ * so no annotation lookup or reflection is required per document.
+ */
+class IndexSchema {
+
+    private static final ClassValue<IndexSchema> SCHEMAS = new ClassValue<IndexSchema>() {
+        @Override
+        protected IndexSchema computeValue(Class<?> type) {
+            return new IndexSchema(type);
+        }
+    };
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+    private static final FieldType TEXT_WITH_OFFSETS_TYPE = new FieldType(TextField.TYPE_STORED);
+
+    static {
+        TEXT_WITH_OFFSETS_TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+        TEXT_WITH_OFFSETS_TYPE.freeze();
+    }
+
+    private final Class<?> targetClass;
+    private final MethodHandle constructor;
+    private final FieldMapping keyField;
+    private final boolean invalidKeyType;
+    private final List<FieldMapping> fields;
+    private final Map<String, FieldMapping> fieldsByName;
+    private final int loadableFieldCount;
+    private final List<String> searchableFields;
+    private final int shardCount;
+
+    static IndexSchema of(Class<?> clazz) {
+        return SCHEMAS.get(clazz);
+    }
+
+    private IndexSchema(Class<?> clazz) {
+        this.targetClass = clazz;
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+        FieldMapping key = null;
+        List<FieldMapping> mappings = new ArrayList<>();
+        for (Field field : clazz.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) {
+                continue;
+            }
+
+            Indexable indexable = field.getAnnotation(Indexable.class);
+            boolean isKey = indexable != null && indexable.isKey();
+            if (indexable != null && indexable.ignore() && !isKey) {
+                continue;
+            }
+
+            FieldMapping mapping = new FieldMapping(field, getFieldKind(field, indexable),
+                indexable != null && indexable.highlight(), indexable == null || indexable.store(), lookup);
+            if (isKey && key == null) {
+                key = mapping;
+            }
+            mappings.add(mapping);
+        }
+        this.keyField = key;
+        this.invalidKeyType = key != null && key.getType() != String.class;
+        this.fields = Collections.unmodifiableList(mappings);
+        this.fieldsByName = new HashMap<>();
+        int loadable = 0;
+        for (FieldMapping mapping : mappings) {
+            this.fieldsByName.put(mapping.getName(), mapping);
+            if (mapping.isLoadable()) {
+                loadable++;
+            }
+        }
+        this.loadableFieldCount = loadable;
+        this.constructor = getConstructor(clazz, lookup);
+
+        List<String> names = new ArrayList<>();
+        for (Field field : ReflectionHelper.getAllFields(clazz)) {
+            if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) {
+                continue;
+            }
+            Indexable indexable = field.getAnnotation(Indexable.class);
+            if (indexable == null || !indexable.ignore()) {
+                names.add(field.getName());
+            }
+        }
+        this.searchableFields = Collections.unmodifiableList(names);
+
+        Sharded sharded = clazz.getAnnotation(Sharded.class);
+        if (sharded != null && sharded.value() < 1) {
+            throw new IllegalArgumentException("The number of shards of " + clazz.getName() + " must be positive.");
+        }
+        this.shardCount = sharded == null ? 1 : sharded.value();
+    }
+
+    Class<?> getTargetClass() {
+        return targetClass;
+    }
+
+    /**
+     * @return the key field or null if no key defined
+     */
+    FieldMapping getKeyField() {
+        return keyField;
+    }
+
+    List<FieldMapping> getFields() {
+        return fields;
+    }
+
+    /**
+     * @return the mapping of the indexed field or null if the field is not indexed
+     */
+    FieldMapping getField(String name) {
+        return fieldsByName.get(name);
+    }
+
+    /**
+     * @return the number of fields which are stored and can be set on loaded items
+     */
+    int getLoadableFieldCount() {
+        return loadableFieldCount;
+    }
+
+    /**
+     * @return names of fields which are not ignored and can be searched by keywords
+     */
+    List<String> getSearchableFields() {
+        return searchableFields;
+    }
+
+    /**
+     * @return the number of shards declared by {@link Sharded}, 1 if not sharded
+     */
+    int getShardCount() {
+        return shardCount;
+    }
+
+    Document toDocument(Object item) throws InvalidKeyTypeException {
+        Document doc = new Document();
+        for (FieldMapping mapping : this.fields) {
+            Object value = mapping.get(item);
+            if (value == null) {
+                continue;
+            }
+            if (mapping.getKind() == FieldKind.KEY && this.invalidKeyType) {
+                // key field must be String
+                throw new InvalidKeyTypeException(this.targetClass);
+            }
+            mapping.addTo(doc, value);
+        }
+        return doc;
+    }
+
+    /**
+     * Creates an empty instance through the cached no-arg constructor.
+     */
+    Object newInstance() throws InstantiationException {
+        if (this.constructor == null) {
+            throw new InstantiationException("No default constructor defined for " + this.targetClass.getName());
+        }
+        try {
+            return (Object) this.constructor.invokeExact();
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static MethodHandle getConstructor(Class<?> clazz, MethodHandles.Lookup lookup) {
+        if (clazz.isInterface() || Modifier.isAbstract(clazz.getModifiers())) {
+            return null;
+        }
+        try {
+            Constructor<?> ctor = clazz.getDeclaredConstructor();
+            ctor.setAccessible(true);
+            return lookup.unreflectConstructor(ctor).asType(CONSTRUCTOR_TYPE);
+        } catch (NoSuchMethodException | IllegalAccessException | SecurityException ex) {
+            return null;
+        }
+    }
+
+    private static FieldKind getFieldKind(Field field, Indexable indexable) {
+        Type fieldType = field.getGenericType();
+        if (indexable != null && indexable.isKey()) {
+            return FieldKind.KEY;
+        } else if (fieldType.equals(String.class)) {
+            return indexable != null && indexable.stringIndexType() == IndexType.EXACT ? FieldKind.STRING : FieldKind.TEXT;
+        } else if (fieldType.equals(Long.class) || fieldType.equals(long.class)) {
+            return FieldKind.LONG;
+        } else if (fieldType.equals(Integer.class) || fieldType.equals(int.class)) {
+            return FieldKind.INT;
+        } else if (fieldType.equals(Float.class) || fieldType.equals(float.class)) {
+            return FieldKind.FLOAT;
+        } else if (fieldType.equals(Double.class) || fieldType.equals(double.class)) {
+            return FieldKind.DOUBLE;
+        }
+        return FieldKind.STRING;
+    }
+
+    enum FieldKind {
+        /** The key, indexed as a single term to identify the item */
+        KEY,
+        /** Analyzed text */
+        TEXT,
+        /** Not analyzed, indexed as a single term of its string value */
+        STRING,
+        LONG,
+        INT,
+        FLOAT,
+        DOUBLE,
+    }
+
+    static class FieldMapping {
+
+        private final String name;
+        private final Class<?> type;
+        private final FieldKind kind;
+        private final boolean offsets;
+        private final boolean stored;
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+        private final MethodHandle primitiveSetter;
+
+        private FieldMapping(Field field, FieldKind kind, boolean offsets, boolean stored, MethodHandles.Lookup lookup) {
+            this.name = field.getName();
+            this.type = field.getType();
+            this.kind = kind;
+            this.stored = stored || kind == FieldKind.KEY;
+            // highlighting reads the stored text
+            this.offsets = offsets && this.stored && kind == FieldKind.TEXT;
+            try {
+                field.setAccessible(true);
+                this.getter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+                if (Modifier.isFinal(field.getModifiers())) {
+                    this.setter = null;
+                    this.primitiveSetter = null;
+                } else {
+                    MethodHandle handle = lookup.unreflectSetter(field);
+                    this.setter = handle.asType(SETTER_TYPE);
+                    // typed setter of the stored numeric type, avoids boxing for primitive fields
+                    Class<?> primitive = getPrimitiveType(kind);
+                    this.primitiveSetter = primitive == null
+                        ? null : handle.asType(MethodType.methodType(void.class, Object.class, primitive));
+                }
+            } catch (IllegalAccessException ex) {
+                throw new IllegalStateException("Can not access field " + field, ex);
+            }
+        }
+
+        private static Class<?> getPrimitiveType(FieldKind kind) {
+            switch (kind) {
+                case LONG:
+                    return long.class;
+                case INT:
+                    return int.class;
+                case FLOAT:
+                    return float.class;
+                case DOUBLE:
+                    return double.class;
+                default:
+                    return null;
+            }
+        }
+
+        String getName() {
+            return name;
+        }
+
+        Class<?> getType() {
+            return type;
+        }
+
+        FieldKind getKind() {
+            return kind;
+        }
+
+        boolean isNumeric() {
+            return kind == FieldKind.LONG || kind == FieldKind.INT || kind == FieldKind.FLOAT || kind == FieldKind.DOUBLE;
+        }
+
+        Object get(Object item) {
+            try {
+                return (Object) this.getter.invokeExact(item);
+            } catch (RuntimeException | Error ex) {
+                throw ex;
+            } catch (Throwable ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        boolean isWritable() {
+            return setter != null;
+        }
+
+        boolean isStored() {
+            return stored;
+        }
+
+        /**
+         * @return whether the field can be loaded from the stored fields of a document
+         */
+        boolean isLoadable() {
+            return stored && setter != null;
+        }
+
+        void set(Object item, Object value) {
+            if (this.setter == null) {
+                return;
+            }
+            try {
+                this.setter.invokeExact(item, value);
+            } catch (RuntimeException | Error ex) {
+                throw ex;
+            } catch (Throwable ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        /**
+         * Sets the field from its stored string value, enum constants are resolved by name.
+         */
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        void setString(Object item, String value) {
+            if (this.type == String.class || this.type == Object.class || this.type == CharSequence.class) {
+                this.set(item, value);
+            } else if (this.type.isEnum()) {
+                this.set(item, Enum.valueOf((Class<? extends Enum>) this.type, value));
+            }
+        }
+
+        void setLong(Object item, long value) {
+            if (this.kind != FieldKind.LONG || this.primitiveSetter == null) {
+                this.setNumber(item, value);
+                return;
+            }
+            try {
+                this.primitiveSetter.invokeExact(item, value);
+            } catch (RuntimeException | Error ex) {
+                throw ex;
+            } catch (Throwable ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        void setInt(Object item, int value) {
+            if (this.kind != FieldKind.INT || this.primitiveSetter == null) {
+                this.setNumber(item, value);
+                return;
+            }
+            try {
+                this.primitiveSetter.invokeExact(item, value);
+            } catch (RuntimeException | Error ex) {
+                throw ex;
+            } catch (Throwable ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        void setFloat(Object item, float value) {
+            if (this.kind != FieldKind.FLOAT || this.primitiveSetter == null) {
+                this.setNumber(item, value);
+                return;
+            }
+            try {
+                this.primitiveSetter.invokeExact(item, value);
+            } catch (RuntimeException | Error ex) {
+                throw ex;
+            } catch (Throwable ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        void setDouble(Object item, double value) {
+            if (this.kind != FieldKind.DOUBLE || this.primitiveSetter == null) {
+                this.setNumber(item, value);
+                return;
+            }
+            try {
+                this.primitiveSetter.invokeExact(item, value);
+            } catch (RuntimeException | Error ex) {
+                throw ex;
+            } catch (Throwable ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        /**
+         * Sets a stored number whose type differs from the field type, e.g. the index was written by an old model.
+         */
+        private void setNumber(Object item, Number value) {
+            switch (this.kind) {
+                case LONG:
+                    this.set(item, value.longValue());
+                    break;
+                case INT:
+                    this.set(item, value.intValue());
+                    break;
+                case FLOAT:
+                    this.set(item, value.floatValue());
+                    break;
+                case DOUBLE:
+                    this.set(item, value.doubleValue());
+                    break;
+                default:
+                    this.setString(item, value.toString());
+                    break;
+            }
+        }
+
+        void addTo(Document doc, Object value) {
+            org.apache.lucene.document.Field.Store store = this.stored
+                ? org.apache.lucene.document.Field.Store.YES : org.apache.lucene.document.Field.Store.NO;
+            switch (this.kind) {
+                case KEY:
+                    // StringField can be used to identity the item to be deleted
+                case STRING:
+                    doc.add(new StringField(this.name, value.toString(), store));
+                    break;
+                case TEXT:
+                    if (this.offsets) {
+                        doc.add(new org.apache.lucene.document.Field(this.name, value.toString(), TEXT_WITH_OFFSETS_TYPE));
+                    } else {
+                        doc.add(new TextField(this.name, value.toString(), store));
+                    }
+                    break;
+                case LONG: {
+                    // NumericDocValuesField is required for LongPoint, IntPoint, FloatPoint, DoublePoint... for sorting
+                    // StoredField is required for LongPoint, IntPoint, FloatPoint, DoublePoint... for storing
+                    long val = ((Number) value).longValue();
+                    doc.add(new NumericDocValuesField(this.name, val));
+                    if (this.stored) {
+                        doc.add(new StoredField(this.name, val));
+                    }
+                    doc.add(new LongPoint(this.name, val));
+                    break;
+                }
+                case INT: {
+                    int val = ((Number) value).intValue();
+                    doc.add(new NumericDocValuesField(this.name, val));
+                    if (this.stored) {
+                        doc.add(new StoredField(this.name, val));
+                    }
+                    doc.add(new IntPoint(this.name, val));
+                    break;
+                }
+                case FLOAT: {
+                    // the sortable bits of the value, not the truncated value
+                    float val = ((Number) value).floatValue();
+                    doc.add(new FloatDocValuesField(this.name, val));
+                    if (this.stored) {
+                        doc.add(new StoredField(this.name, val));
+                    }
+                    doc.add(new FloatPoint(this.name, val));
+                    break;
+                }
+                case DOUBLE: {
+                    double val = ((Number) value).doubleValue();
+                    doc.add(new DoubleDocValuesField(this.name, val));
+                    if (this.stored) {
+                        doc.add(new StoredField(this.name, val));
+                    }
+                    doc.add(new DoublePoint(this.name, val));
+                    break;
+                }
+                default:
+                    break;
+            }
+        }
+    }
+}
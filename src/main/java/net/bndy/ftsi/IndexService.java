@@ -2,37 +2,96 @@ package net.bndy.ftsi;
 
 import net.bndy.lib.*;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.*;
 import org.apache.lucene.index.*;
-import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.search.*;
-import org.apache.lucene.search.highlight.*;
-import org.apache.lucene.search.highlight.Formatter;
+import org.apache.lucene.search.uhighlight.DefaultPassageFormatter;
+import org.apache.lucene.search.uhighlight.LengthGoalBreakIterator;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Field;
-import java.lang.reflect.Type;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.text.BreakIterator;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-public class IndexService {
+public class IndexService implements Closeable {
 
     private static final String DEFAULT_HIGHLIGHT_PRE_TAG = "<B class='highlight'>";
     private static final String DEFAULT_HIGHLIGHT_POST_TAG = "</B>";
     private static final int DEFAULT_HIGHLIGHT_FRAGMENT_SIZE = 100;
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final int DEFAULT_ASYNC_QUEUE_CAPACITY = 10000;
+    private static final int DEFAULT_ASYNC_INDEXER_THREADS = 2;
+    private static final int DEFAULT_PARSED_QUERY_CACHE_SIZE = 1000;
+    private static final int DEFAULT_QUERY_CACHE_SIZE = 1000;
+    private static final long DEFAULT_QUERY_CACHE_RAM_BYTES = 32 * 1024 * 1024;
 
     private String dataPath;
+    private DirectoryFactory directoryFactory;
     private Analyzer analyzer;
     private String highlightPreTag;
     private String highlightPostTag;
     private int highlightFragmentSize;
+    private final ConcurrentMap<String, IndexCatalog> catalogs = new ConcurrentHashMap<>();
+    private final ShardRouter shardRouter = new ShardRouter();
+    private QueryCompiler queryCompiler;
+    private int parsedQueryCacheSize = DEFAULT_PARSED_QUERY_CACHE_SIZE;
+    private volatile QueryCache queryCache = new LRUQueryCache(DEFAULT_QUERY_CACHE_SIZE, DEFAULT_QUERY_CACHE_RAM_BYTES);
+    private volatile QueryCachingPolicy queryCachingPolicy = new UsageTrackingQueryCachingPolicy();
+    private final ResultCache resultCache = new ResultCache(0, 0);
+    private int resultCacheSize;
+    private long resultCacheTtl;
+    private volatile boolean closed;
+    private volatile long refreshInterval;
+    private volatile long commitInterval;
+    private volatile long maintenanceInterval;
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+    private volatile double ramBufferSizeMB = IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB;
+    private volatile Executor indexExecutor;
+    private volatile Executor catalogExecutor;
+    private volatile MetricsListener metricsListener = MetricsListener.NONE;
+    private volatile boolean snapshotHardLinks;
+    private final CatalogRegistry registry = new Registry();
+    private final CatalogSnapshots snapshots = new CatalogSnapshots(this.registry, () -> this.metricsListener);
+    private volatile CatalogPublisher publisher;
+    private volatile CatalogFollower follower;
+    private volatile long replicationInterval;
+    private volatile boolean warmUpTerms;
+    private final ConcurrentMap<Class<?>, List<String>> warmUpQueries = new ConcurrentHashMap<>();
+    private volatile ExecutorService searchExecutor;
+    private volatile SlicePolicy slicePolicy = SlicePolicy.BALANCED;
+    private volatile int maxSlicesPerQuery = Runtime.getRuntime().availableProcessors();
+    private int asyncQueueCapacity = DEFAULT_ASYNC_QUEUE_CAPACITY;
+    private int asyncIndexerThreads = DEFAULT_ASYNC_INDEXER_THREADS;
+    private volatile AsyncIndexer asyncIndexer;
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> refreshTask;
+    private ScheduledFuture<?> commitTask;
+    private ScheduledFuture<?> maintenanceTask;
+    private ScheduledFuture<?> replicationTask;
 
     public IndexService(String dataPath) {
         this(dataPath, new StandardAnalyzer(), null, null, null);
@@ -51,12 +110,31 @@ public class IndexService {
                         String highlightPreTag,
                         String highlightPostTag,
                         Integer highlightFragmentSize) {
+        this(dataPath, analyzer, highlightPreTag, highlightPostTag, highlightFragmentSize, null);
+    }
+
+    /**
+     * @param dataPath         the path for index persistence
+     * @param directoryFactory opens the directories of catalogs, like memory mapped or in-memory ones
+     */
+    public IndexService(String dataPath, DirectoryFactory directoryFactory) {
+        this(dataPath, new StandardAnalyzer(), null, null, null, directoryFactory);
+    }
+
+    public IndexService(String dataPath,
+                        Analyzer analyzer,
+                        String highlightPreTag,
+                        String highlightPostTag,
+                        Integer highlightFragmentSize,
+                        DirectoryFactory directoryFactory) {
 
         if (StringHelper.isNullOrWhiteSpace(dataPath)) {
             throw new IllegalArgumentException("The data path can not be empty.");
         }
-        
-        if (!IOHelper.isDirectoryExisted(dataPath)) {
+
+        this.directoryFactory = directoryFactory == null
+            ? DirectoryFactory.fs() : directoryFactory;
+        if (this.directoryFactory.isPersistent() && !IOHelper.isDirectoryExisted(dataPath)) {
             IOHelper.ensureDirectory(dataPath);
         }
 
@@ -69,152 +147,1228 @@ public class IndexService {
             ? DEFAULT_HIGHLIGHT_POST_TAG : highlightPostTag;
         this.highlightFragmentSize = highlightFragmentSize == null
             ? DEFAULT_HIGHLIGHT_FRAGMENT_SIZE : highlightFragmentSize.intValue();
+        this.queryCompiler = new QueryCompiler(this.analyzer, this.parsedQueryCacheSize);
+    }
+
+    public int getParsedQueryCacheSize() {
+        return parsedQueryCacheSize;
+    }
+
+    /**
+     * Sets how many parsed keyword queries are cached, repeated keywords of a class are not parsed again.
+     *
+     * @param parsedQueryCacheSize the max number of cached queries, 1000 by default, 0 to disable
+     */
+    public void setParsedQueryCacheSize(int parsedQueryCacheSize) {
+        if (parsedQueryCacheSize < 0) {
+            throw new IllegalArgumentException("The cache size can not be negative.");
+        }
+        this.parsedQueryCacheSize = parsedQueryCacheSize;
+        this.queryCompiler.setCacheSize(parsedQueryCacheSize);
+    }
+
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Sets the cache of filters shared by searchers of all catalogs, filters used often are cached as bitsets.
+     * It applies to searchers opened after the next refresh.
+     *
+     * @param queryCache the query cache, a {@link LRUQueryCache} of 1000 queries and 32MB by default, null to disable
+     */
+    public void setQueryCache(QueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    public QueryCachingPolicy getQueryCachingPolicy() {
+        return queryCachingPolicy;
+    }
+
+    /**
+     * Sets which filters are cached, it applies to searchers opened after the next refresh.
+     *
+     * @param queryCachingPolicy the caching policy, {@link UsageTrackingQueryCachingPolicy} by default
+     */
+    public void setQueryCachingPolicy(QueryCachingPolicy queryCachingPolicy) {
+        if (queryCachingPolicy == null) {
+            throw new IllegalArgumentException("The query caching policy can not be null.");
+        }
+        this.queryCachingPolicy = queryCachingPolicy;
+    }
+
+    public int getResultCacheSize() {
+        return resultCacheSize;
+    }
+
+    /**
+     * Sets how many search results are cached, repeated searches on an unchanged catalog return the cached result.
+     * Results of a catalog are dropped once a write to it becomes visible, so they are never older than the searcher.
+     * Cached items are shared by callers and should not be modified.
+     *
+     * @param resultCacheSize the max number of cached results, 0 (default) to disable
+     */
+    public void setResultCacheSize(int resultCacheSize) {
+        if (resultCacheSize < 0) {
+            throw new IllegalArgumentException("The cache size can not be negative.");
+        }
+        this.resultCacheSize = resultCacheSize;
+        this.resultCache.setMaxSize(resultCacheSize);
+    }
+
+    public long getResultCacheTtl() {
+        return resultCacheTtl;
+    }
+
+    /**
+     * @param resultCacheTtl how long a search result is cached in milliseconds, 0 (default) for no limit
+     */
+    public void setResultCacheTtl(long resultCacheTtl) {
+        if (resultCacheTtl < 0) {
+            throw new IllegalArgumentException("The cache TTL can not be negative.");
+        }
+        this.resultCacheTtl = resultCacheTtl;
+        this.resultCache.setTtl(resultCacheTtl);
+    }
+
+    public CacheStats getResultCacheStats() {
+        return this.resultCache.getStats();
+    }
+
+    public long getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    /**
+     * Sets how searchers see the changes of writers. With 0 (default) the searcher of a catalog is refreshed
+     * on the next search after a write, otherwise searchers are refreshed in background every interval and
+     * searches never wait for a refresh.
+     *
+     * @param refreshInterval the refresh interval in milliseconds, 0 to refresh after writes
+     */
+    public synchronized void setRefreshInterval(long refreshInterval) {
+        if (refreshInterval < 0) {
+            throw new IllegalArgumentException("The refresh interval can not be negative.");
+        }
+
+        this.refreshInterval = refreshInterval;
+        if (this.refreshTask != null) {
+            this.refreshTask.cancel(false);
+            this.refreshTask = null;
+        }
+        if (refreshInterval > 0) {
+            this.refreshTask = this.getScheduler().scheduleWithFixedDelay(() -> {
+                for (IndexCatalog catalog : this.catalogs.values()) {
+                    try {
+                        catalog.maybeRefresh();
+                    } catch (Exception ex) {
+                        this.handleError(catalog.getName(), "refresh", ex);
+                    }
+                }
+            }, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public long getCommitInterval() {
+        return commitInterval;
+    }
+
+    /**
+     * Sets the interval to commit changed catalogs in background.
+     *
+     * @param commitInterval the commit interval in milliseconds, 0 (default) to commit only by {@link #commit()},
+     *                       {@link #close()} and bulk indexing
+     */
+    public synchronized void setCommitInterval(long commitInterval) {
+        if (commitInterval < 0) {
+            throw new IllegalArgumentException("The commit interval can not be negative.");
+        }
+
+        this.commitInterval = commitInterval;
+        if (this.commitTask != null) {
+            this.commitTask.cancel(false);
+            this.commitTask = null;
+        }
+        if (commitInterval > 0) {
+            this.commitTask = this.getScheduler().scheduleWithFixedDelay(
+                this::commit, commitInterval, commitInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public long getMaintenanceInterval() {
+        return maintenanceInterval;
+    }
+
+    /**
+     * Sets the interval to reclaim deleted items in background. Only segments with enough deletions are merged,
+     * and merges run on the merge scheduler which throttles their IO, so writers and searches are not blocked.
+     *
+     * @param maintenanceInterval the interval in milliseconds, 0 (default) to leave it to the merge policy
+     */
+    public synchronized void setMaintenanceInterval(long maintenanceInterval) {
+        if (maintenanceInterval < 0) {
+            throw new IllegalArgumentException("The maintenance interval can not be negative.");
+        }
+
+        this.maintenanceInterval = maintenanceInterval;
+        if (this.maintenanceTask != null) {
+            this.maintenanceTask.cancel(false);
+            this.maintenanceTask = null;
+        }
+        if (maintenanceInterval > 0) {
+            this.maintenanceTask = this.getScheduler().scheduleWithFixedDelay(() -> {
+                for (IndexCatalog catalog : this.catalogs.values()) {
+                    if (catalog.isReadOnly() || !catalog.tryIncRef()) {
+                        continue;
+                    }
+                    try {
+                        if (catalog.getWriter().hasDeletions()) {
+                            catalog.getWriter().forceMergeDeletes(false);
+                            catalog.markChanged();
+                        }
+                    } catch (Exception ex) {
+                        this.handleError(catalog.getName(), "maintenance", ex);
+                    } finally {
+                        this.decRef(catalog);
+                    }
+                }
+            }, maintenanceInterval, maintenanceInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public long getReplicationInterval() {
+        return replicationInterval;
+    }
+
+    /**
+     * Sets the interval for a follower to replicate new commits of its leader in background.
+     *
+     * @param replicationInterval the interval in milliseconds, 0 (default) to replicate only by {@link #replicate()}
+     */
+    public synchronized void setReplicationInterval(long replicationInterval) {
+        if (replicationInterval < 0) {
+            throw new IllegalArgumentException("The replication interval can not be negative.");
+        }
+
+        this.replicationInterval = replicationInterval;
+        if (this.replicationTask != null) {
+            this.replicationTask.cancel(false);
+            this.replicationTask = null;
+        }
+        if (replicationInterval > 0) {
+            this.replicationTask = this.getScheduler().scheduleWithFixedDelay(() -> {
+                if (this.follower != null) {
+                    this.replicate();
+                }
+            }, replicationInterval, replicationInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public boolean isWarmUpTerms() {
+        return warmUpTerms;
+    }
+
+    /**
+     * Sets whether {@link #warmUp()} reads through the term dictionaries, norms and doc values of catalogs,
+     * so the first searches do not fault them in from disk. Merged segments are then warmed before they are searched.
+     *
+     * @param warmUpTerms true to touch the index files, false (default) to only open readers
+     */
+    public void setWarmUpTerms(boolean warmUpTerms) {
+        this.warmUpTerms = warmUpTerms;
+        for (IndexCatalog catalog : this.catalogs.values()) {
+            if (!catalog.isReadOnly() && catalog.tryIncRef()) {
+                try {
+                    catalog.getWriter().getConfig().setMergedSegmentWarmer(warmUpTerms ? CatalogWarmer.INSTANCE : null);
+                } finally {
+                    this.decRef(catalog);
+                }
+            }
+        }
+    }
+
+    public List<String> getWarmUpQueries(Class<?> clazz) {
+        return this.warmUpQueries.getOrDefault(clazz, Collections.emptyList());
+    }
+
+    /**
+     * Sets the keywords searched by {@link #warmUp()} on the class, like the most frequent queries of the previous run.
+     *
+     * @param clazz    the class of indexed items
+     * @param keywords the keywords of the queries, none to remove them
+     */
+    public void setWarmUpQueries(Class<?> clazz, String... keywords) {
+        if (keywords == null || keywords.length == 0) {
+            this.warmUpQueries.remove(clazz);
+        } else {
+            this.warmUpQueries.put(clazz, Collections.unmodifiableList(new ArrayList<>(Arrays.asList(keywords))));
+        }
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets how many items are built and added to writers together by {@link #bulkIndex(Iterator)}.
+     *
+     * @param batchSize the number of items per batch, 1000 by default
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be greater than 0.");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public double getRamBufferSizeMB() {
+        return ramBufferSizeMB;
+    }
+
+    /**
+     * Sets the RAM buffer of each writer, a larger buffer flushes fewer and larger segments while indexing.
+     *
+     * @param ramBufferSizeMB the buffer size in MB, 16 by default
+     */
+    public void setRamBufferSizeMB(double ramBufferSizeMB) {
+        this.ramBufferSizeMB = ramBufferSizeMB;
+        for (IndexCatalog catalog : this.catalogs.values()) {
+            // catalogs of a follower have no writer
+            if (!catalog.isReadOnly() && catalog.tryIncRef()) {
+                try {
+                    catalog.getWriter().getConfig().setRAMBufferSizeMB(ramBufferSizeMB);
+                } finally {
+                    this.decRef(catalog);
+                }
+            }
+        }
+    }
+
+    public Executor getIndexExecutor() {
+        return indexExecutor == null ? ForkJoinPool.commonPool() : indexExecutor;
+    }
+
+    /**
+     * Sets the executor to build and add documents in parallel for {@link #bulkIndex(Iterator)}.
+     *
+     * @param indexExecutor the executor, null to use the common fork join pool
+     */
+    public void setIndexExecutor(Executor indexExecutor) {
+        this.indexExecutor = indexExecutor;
+    }
+
+    public Executor getCatalogExecutor() {
+        return catalogExecutor == null ? ForkJoinPool.commonPool() : catalogExecutor;
+    }
+
+    /**
+     * Sets the executor to search and count catalogs in parallel, for searches across classes and {@link #getTotals()}.
+     *
+     * @param catalogExecutor the executor, null to use the common fork join pool
+     */
+    public void setCatalogExecutor(Executor catalogExecutor) {
+        this.catalogExecutor = catalogExecutor;
+    }
+
+    public ExecutorService getSearchExecutor() {
+        return searchExecutor;
+    }
+
+    /**
+     * Sets the executor to search the slices of a catalog concurrently within one query, like a bounded pool
+     * or a thread-per-task executor. It should not be a bounded catalog executor, since a catalog search waits for
+     * its slices. It applies to searchers opened after the next refresh.
+     *
+     * @param searchExecutor the executor, null (default) to search slices in the calling thread
+     */
+    public void setSearchExecutor(ExecutorService searchExecutor) {
+        this.searchExecutor = searchExecutor;
+    }
+
+    public SlicePolicy getSlicePolicy() {
+        return slicePolicy;
+    }
+
+    /**
+     * Sets how segments are grouped into slices with the search executor, it applies to searchers opened after the next refresh.
+     *
+     * @param slicePolicy the slice policy, {@link SlicePolicy#BALANCED} by default
+     */
+    public void setSlicePolicy(SlicePolicy slicePolicy) {
+        if (slicePolicy == null) {
+            throw new IllegalArgumentException("The slice policy can not be null.");
+        }
+        this.slicePolicy = slicePolicy;
+    }
+
+    public int getMaxSlicesPerQuery() {
+        return maxSlicesPerQuery;
+    }
+
+    /**
+     * @param maxSlicesPerQuery the max number of slices a query searches concurrently, the number of processors by default
+     */
+    public void setMaxSlicesPerQuery(int maxSlicesPerQuery) {
+        if (maxSlicesPerQuery < 1) {
+            throw new IllegalArgumentException("The max slices per query must be positive.");
+        }
+        this.maxSlicesPerQuery = maxSlicesPerQuery;
     }
 
+    public MetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    /**
+     * Sets the listener of metrics like durations of writes, commits, refreshes and search phases, and errors.
+     * Errors are reported to the listener instead of being printed.
+     *
+     * @param metricsListener the listener, null to record nothing and print errors
+     */
+    public void setMetricsListener(MetricsListener metricsListener) {
+        this.metricsListener = metricsListener == null ? MetricsListener.NONE : metricsListener;
+    }
+
+    public boolean isSnapshotHardLinks() {
+        return snapshotHardLinks;
+    }
+
+    /**
+     * Sets whether snapshots link the index files instead of copying them when the target is on the same file system.
+     * Linked backups take no extra space for unchanged files but do not survive a failure of the disk.
+     *
+     * @param snapshotHardLinks true to use hard links, false by default
+     */
+    public void setSnapshotHardLinks(boolean snapshotHardLinks) {
+        this.snapshotHardLinks = snapshotHardLinks;
+    }
+
+    /**
+     * @param clazz the class of indexed items
+     * @return the number of shards of the catalog for the class, set by {@link #setShardCount(Class, int)} or {@link Sharded}
+     */
+    public int getShardCount(Class<?> clazz) {
+        return this.shardRouter.getShardCount(clazz);
+    }
+
+    /**
+     * Splits the catalog for the class into shards like {@link Sharded}, it overrides the annotation.
+     * It MUST be set before the class is indexed or searched, and MUST NOT change once items are indexed.
+     *
+     * @param clazz      the class of indexed items
+     * @param shardCount the number of shards, 1 to not shard
+     * @throws IllegalStateException if the catalog for the class has been opened
+     */
+    public void setShardCount(Class<?> clazz, int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("The number of shards must be positive.");
+        }
+        for (String catalogName : this.catalogs.keySet()) {
+            if (ShardRouter.getClassName(catalogName).equals(clazz.getName())) {
+                throw new IllegalStateException("The catalog for " + clazz.getName() + " has been opened.");
+            }
+        }
+        this.shardRouter.setShardCount(clazz, shardCount);
+    }
+
+    public int getAsyncQueueCapacity() {
+        return asyncQueueCapacity;
+    }
+
+    /**
+     * Sets the capacity of the asynchronous index queue, asynchronous calls block while the queue is full.
+     * It must be set before the first asynchronous call.
+     *
+     * @param asyncQueueCapacity the max number of queued operations, 10000 by default
+     */
+    public synchronized void setAsyncQueueCapacity(int asyncQueueCapacity) {
+        if (asyncQueueCapacity < 1) {
+            throw new IllegalArgumentException("The queue capacity must be greater than 0.");
+        }
+        this.ensureAsyncNotStarted();
+        this.asyncQueueCapacity = asyncQueueCapacity;
+    }
+
+    public int getAsyncIndexerThreads() {
+        return asyncIndexerThreads;
+    }
+
+    /**
+     * Sets the number of threads draining the asynchronous index queue, each class is indexed by one of them
+     * so its operations keep their order. It must be set before the first asynchronous call.
+     *
+     * @param asyncIndexerThreads the number of indexer threads, 2 by default
+     */
+    public synchronized void setAsyncIndexerThreads(int asyncIndexerThreads) {
+        if (asyncIndexerThreads < 1) {
+            throw new IllegalArgumentException("The number of indexer threads must be greater than 0.");
+        }
+        this.ensureAsyncNotStarted();
+        this.asyncIndexerThreads = asyncIndexerThreads;
+    }
+
+    private void ensureAsyncNotStarted() {
+        if (this.asyncIndexer != null) {
+            throw new IllegalStateException("The asynchronous indexer has been started.");
+        }
+    }
+
+    /**
+     * Makes all changes of the catalog for the specified class visible to searches.
+     *
+     * @param clazz the class of indexed items
+     * @param <T>   the type of indexed items
+     */
+    public <T> void refresh(Class<T> clazz) {
+        for (IndexCatalog catalog : this.getCatalogs(clazz)) {
+            try {
+                catalog.refresh();
+            } catch (IOException ex) {
+                this.handleError(catalog.getName(), "refresh", ex);
+            }
+        }
+    }
+
+    /**
+     * Gets the status of the catalog for the specified class, including the gauges of its writer and segments.
+     * The numbers of a sharded catalog are summed over its shards.
+     *
+     * @param clazz the class of indexed items
+     * @param <T>   the type of indexed items
+     * @return the status
+     */
     public <T> IndexStatus status(Class<T> clazz) {
-        IndexReader reader = this.getReader(clazz);
-        IndexStatus indexStatus = new IndexStatus(reader.numDocs(), reader.numDeletedDocs(), reader.maxDoc());
+        IndexStatus status = null;
+        for (IndexCatalog catalog : this.getCatalogs(clazz)) {
+            IndexStatus shardStatus = this.status(catalog);
+            if (shardStatus == null) {
+                return null;
+            }
+            if (status == null) {
+                status = shardStatus;
+            } else {
+                status.add(shardStatus);
+            }
+        }
+        return status;
+    }
+
+    private IndexStatus status(IndexCatalog catalog) {
+        IndexSearcher searcher = null;
         try {
-            reader.close();
+            searcher = this.acquireSearcher(catalog);
+            IndexReader reader = searcher.getIndexReader();
+            IndexStatus status = new IndexStatus(reader.numDocs(), reader.numDeletedDocs(), reader.maxDoc());
+            status.setSegmentCount(reader.leaves().size());
+            if (!catalog.isReadOnly() && catalog.tryIncRef()) {
+                try {
+                    IndexWriter writer = catalog.getWriter();
+                    status.setRamBytesUsed(writer.ramBytesUsed());
+                    status.setPendingDocs(writer.numRamDocs());
+                    status.setMergingSegmentCount(writer.getMergingSegments().size());
+                    status.setPendingMerges(writer.hasPendingMerges());
+                } finally {
+                    this.decRef(catalog);
+                }
+            }
+            return status;
         } catch (IOException ex) {
-            ex.printStackTrace();
+            this.handleError(catalog.getName(), "status", ex);
+        } finally {
+            this.releaseSearcher(catalog, searcher);
         }
-        return indexStatus;
+        return null;
     }
 
     public <T> int getTotals(Class<T> clazz) {
-        return this.getReader(clazz).numDocs();
+        int totals = 0;
+        for (String catalogName : this.getCatalogNames(clazz)) {
+            totals += this.getTotals(catalogName);
+        }
+        return totals;
     }
 
+    /**
+     * Counts items of all catalogs, catalogs are counted in parallel on the catalog executor.
+     */
     public int getTotals() {
+        List<CompletableFuture<Integer>> counts = new ArrayList<>();
+        for (String catalog : this.getCatalogNames()) {
+            counts.add(CompletableFuture.supplyAsync(() -> this.getTotals(catalog), this.getCatalogExecutor()));
+        }
         int totals = 0;
-        if (!StringHelper.isNullOrWhiteSpace(this.dataPath) && IOHelper.isDirectoryExisted(this.dataPath)) {
-            List<File> folders = IOHelper.getDirectories(this.dataPath);
-            for (File file : folders) {
-                totals += this.getReader(file.getName()).numDocs();
-            }
+        for (CompletableFuture<Integer> count : counts) {
+            totals += count.join();
         }
         return totals;
     }
 
-    public void createIndex(Object... items) {
-        Map<String, IndexWriter> writers = new HashMap<>();
+    private int getTotals(String catalogName) {
+        IndexCatalog catalog = this.getCatalog(catalogName);
+        if (catalog == null) {
+            return 0;
+        }
+        IndexSearcher searcher = null;
         try {
-            for (Object item : items) {
-                IndexWriter writer = writers.get(item.getClass().getName());
-                if (writer == null) {
-                    writer = this.getWriter(item.getClass());
-                    writers.put(item.getClass().getName(), writer);
+            searcher = this.acquireSearcher(catalog);
+            return searcher.getIndexReader().numDocs();
+        } catch (IOException ex) {
+            this.handleError(catalogName, "status", ex);
+        } finally {
+            this.releaseSearcher(catalog, searcher);
+        }
+        return 0;
+    }
+
+    /**
+     * Commits pending changes of all opened catalogs to disk.
+     */
+    public void commit() {
+        for (IndexCatalog catalog : this.catalogs.values()) {
+            try {
+                catalog.commit();
+            } catch (IOException ex) {
+                this.handleError(catalog.getName(), "commit", ex);
+            }
+        }
+    }
+
+    /**
+     * Commits pending changes of the catalog for the specified class to disk.
+     *
+     * @param clazz the class of indexed items
+     * @param <T>   the type of indexed items
+     */
+    public <T> void commit(Class<T> clazz) {
+        for (String catalogName : this.getCatalogNames(clazz)) {
+            IndexCatalog catalog = this.catalogs.get(catalogName);
+            if (catalog != null) {
+                try {
+                    catalog.commit();
+                } catch (IOException ex) {
+                    this.handleError(catalog.getName(), "commit", ex);
                 }
+            }
+        }
+    }
 
-                Document doc = new Document();
-                Field[] fields = item.getClass().getDeclaredFields();
-                for (Field field : fields) {
-                    field.setAccessible(true);
-                    String fieldName = field.getName();
-                    Type fieldType = field.getGenericType();
-                    Object fieldValue = field.get(item);
+    /**
+     * Backs up the last commit of the catalog for the specified class to the target path while indexing goes on.
+     * Pending changes are committed first, only the files changed since the previous backup to the same path are copied.
+     *
+     * @param clazz      the class of indexed items
+     * @param targetPath the backup path, the catalog is backed up to a folder under it, a folder per shard if sharded
+     * @param <T>        the type of indexed items
+     * @return the generation of the commit backed up, the highest one of the shards if sharded, -1 if failed
+     */
+    public <T> long snapshot(Class<T> clazz, String targetPath) {
+        long generation = -1;
+        for (String catalogName : this.getCatalogNames(clazz)) {
+            long shardGeneration = this.snapshots.snapshot(catalogName, Paths.get(targetPath, catalogName),
+                this.snapshotHardLinks);
+            if (shardGeneration < 0) {
+                return -1;
+            }
+            generation = Math.max(generation, shardGeneration);
+        }
+        return generation;
+    }
 
-                    if (fieldValue == null) {
-                        continue;
-                    }
+    /**
+     * Backs up all catalogs to the target path, see {@link #snapshot(Class, String)}.
+     *
+     * @param targetPath the backup path
+     * @return the generations of the commits backed up by catalog names
+     */
+    public Map<String, Long> snapshotAll(String targetPath) {
+        Map<String, Long> generations = new TreeMap<>();
+        for (String catalogName : this.getCatalogNames()) {
+            long generation = this.snapshots.snapshot(catalogName, Paths.get(targetPath, catalogName),
+                this.snapshotHardLinks);
+            if (generation >= 0) {
+                generations.put(catalogName, generation);
+            }
+        }
+        return generations;
+    }
 
-                    Indexable annotationIndexable = AnnotationHelper.getFieldAnnotation(Indexable.class, item.getClass(), fieldName);
-                    if (annotationIndexable != null && annotationIndexable.ignore() && !annotationIndexable.isKey()) {
-                        continue;
-                    }
+    /**
+     * Replaces the catalog for the specified class with a backup made by {@link #snapshot(Class, String)}.
+     * Changes made to the catalog while it is restored are lost.
+     *
+     * @param clazz      the class of indexed items
+     * @param sourcePath the backup path
+     * @param <T>        the type of indexed items
+     * @return whether the catalog has been restored
+     */
+    public <T> boolean restore(Class<T> clazz, String sourcePath) {
+        boolean restored = true;
+        for (String catalogName : this.getCatalogNames(clazz)) {
+            restored &= this.restore(catalogName, Paths.get(sourcePath, catalogName));
+        }
+        return restored;
+    }
 
-                    if (annotationIndexable != null && annotationIndexable.isKey()) {
-                        // for Key field
-                        if (field.getType() != String.class) {
-                            // key field must be String
-                            throw new InvalidKeyTypeException(item.getClass());
-                        }
-                        // StringField can be used to identity the item to be deleted
-                        doc.add(new StringField(fieldName, fieldValue.toString(), org.apache.lucene.document.Field.Store.YES));
-                    } else if (fieldType.equals(String.class)) {
-                        if (annotationIndexable != null && (annotationIndexable.stringIndexType() == IndexType.EXACT)) {
-                            doc.add(new StringField(fieldName, fieldValue.toString(), org.apache.lucene.document.Field.Store.YES));
-                        } else {
-                            doc.add(new TextField(fieldName, fieldValue.toString(), org.apache.lucene.document.Field.Store.YES));
-                        }
-                    } else if (fieldType.equals(Long.class) || fieldType.equals(long.class)) {
-                        // NumericDocValuesField is required for LongPoint, IntPoint, FloatPoint, DoublePoint... for sorting
-                        // StoredField is required for LongPoint, IntPoint, FloatPoint, DoublePoint... for storing
-                        Long val = Long.parseLong(fieldValue.toString());
-                        doc.add(new NumericDocValuesField(fieldName, val));
-                        doc.add(new StoredField(fieldName, val));
-                        doc.add(new LongPoint(fieldName, val));
-                    } else if (fieldType.equals(Integer.class) || fieldType.equals(int.class)) {
-                        Integer val = Integer.parseInt(fieldValue.toString());
-                        doc.add(new NumericDocValuesField(fieldName, val.longValue()));
-                        doc.add(new StoredField(fieldName, val));
-                        doc.add(new IntPoint(fieldName, val));
-                    } else if (fieldType.equals(Float.class) || fieldType.equals(float.class)) {
-                        Float val = Float.parseFloat(fieldValue.toString());
-                        doc.add(new NumericDocValuesField(fieldName, val.longValue()));
-                        doc.add(new StoredField(fieldName, val));
-                        doc.add(new FloatPoint(fieldName, val));
-                    } else if (fieldType.equals(Double.class) || fieldType.equals(double.class)) {
-                        Double val = Double.parseDouble(fieldValue.toString());
-                        doc.add(new NumericDocValuesField(fieldName, val.longValue()));
-                        doc.add(new StoredField(fieldName, val));
-                        doc.add(new DoublePoint(fieldName, val));
+    /**
+     * Restores all catalogs found in a backup made by {@link #snapshotAll(String)}.
+     *
+     * @param sourcePath the backup path
+     * @return the number of catalogs restored
+     */
+    public int restoreAll(String sourcePath) {
+        int restored = 0;
+        if (IOHelper.isDirectoryExisted(sourcePath)) {
+            for (File folder : IOHelper.getDirectories(sourcePath)) {
+                if (this.restore(folder.getName(), folder.toPath())) {
+                    restored++;
+                }
+            }
+        }
+        return restored;
+    }
+
+    private boolean restore(String catalogName, Path source) {
+        if (this.closed) {
+            throw new IllegalStateException("The index service has been closed.");
+        }
+        if (this.follower != null) {
+            throw new IllegalStateException("A follower can not be restored, it is replicated from its leader.");
+        }
+        IndexCatalog restored = this.snapshots.restore(catalogName, source);
+        if (restored == null) {
+            return false;
+        }
+        // followers go back to the restored commit
+        this.schedulePublish(restored);
+        return true;
+    }
+
+    /**
+     * Opens the catalogs of all folders under the data path in parallel on the catalog executor, instead of
+     * on the first requests after a restart. Schemas of their classes are built, index files are touched if
+     * {@link #setWarmUpTerms(boolean)}, then the warm-up queries are searched.
+     *
+     * @return the number of catalogs opened
+     */
+    public int warmUp() {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        List<CompletableFuture<Boolean>> opened = new ArrayList<>();
+        for (String catalogName : this.getCatalogNames()) {
+            opened.add(CompletableFuture.supplyAsync(() -> this.warmUp(catalogName, classLoader), this.getCatalogExecutor()));
+        }
+        int count = 0;
+        for (CompletableFuture<Boolean> catalog : opened) {
+            if (catalog.join()) {
+                count++;
+            }
+        }
+
+        for (Map.Entry<Class<?>, List<String>> queries : this.warmUpQueries.entrySet()) {
+            for (String keywords : queries.getValue()) {
+                this.search(keywords, queries.getKey(), 1, 10);
+            }
+        }
+        return count;
+    }
+
+    private boolean warmUp(String catalogName, ClassLoader classLoader) {
+        try {
+            IndexSchema.of(Class.forName(ShardRouter.getClassName(catalogName), false, classLoader));
+        } catch (ClassNotFoundException | LinkageError ex) {
+            // a catalog of a class not loaded by this application, its reader is still opened
+        }
+
+        IndexCatalog catalog = this.getCatalog(catalogName);
+        if (catalog == null) {
+            return false;
+        }
+        if (this.warmUpTerms) {
+            IndexSearcher searcher = null;
+            try {
+                searcher = this.acquireSearcher(catalog);
+                for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+                    CatalogWarmer.INSTANCE.warm(leaf.reader());
+                }
+            } catch (IOException ex) {
+                this.handleError(catalogName, "warm-up", ex);
+            } finally {
+                this.releaseSearcher(catalog, searcher);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Makes this service the leader of followers, the last commit of a catalog is published to the transport
+     * after each commit, so followers copy the new segment files instead of indexing the items again.
+     * Commits are published in background, the commits made before are published once the service is closed.
+     * All catalogs are committed and published now.
+     *
+     * @param transport the transport to the followers
+     */
+    public void publish(ReplicationTransport transport) {
+        if (transport == null) {
+            throw new IllegalArgumentException("The transport can not be null.");
+        }
+        if (this.follower != null) {
+            throw new IllegalStateException("A follower can not publish, it is replicated from its leader.");
+        }
+        CatalogPublisher publisher = new CatalogPublisher(transport, this.registry, () -> this.metricsListener);
+        CatalogPublisher previous;
+        synchronized (this) {
+            previous = this.publisher;
+            this.publisher = publisher;
+        }
+        if (previous != null) {
+            // the commits queued are still published to the previous transport
+            previous.close(Collections.emptyList());
+        }
+        for (String catalogName : this.getCatalogNames()) {
+            IndexCatalog catalog = this.getCatalog(catalogName);
+            if (catalog != null) {
+                publisher.publish(catalog, true);
+            }
+        }
+    }
+
+    /**
+     * Waits until the commits made before are published to the followers.
+     */
+    public void awaitPublished() {
+        CatalogPublisher publisher = this.publisher;
+        if (publisher != null) {
+            publisher.awaitPublished();
+        }
+    }
+
+    /**
+     * Publishes the last commit of the catalog in background if this service is a leader.
+     */
+    private void schedulePublish(IndexCatalog catalog) {
+        CatalogPublisher publisher = this.publisher;
+        if (publisher != null && !this.closed) {
+            publisher.schedule(catalog);
+        }
+    }
+
+    /**
+     * Makes this service a follower which replicates the catalogs of a leader from the transport without indexing,
+     * writes to it fail with {@link IllegalStateException} afterwards. Catalogs are replicated by {@link #replicate()},
+     * or in background by {@link #setReplicationInterval(long)}. Catalogs not replicated yet are empty.
+     *
+     * @param transport the transport from the leader
+     * @throws IllegalStateException if catalogs have been opened
+     */
+    public void follow(ReplicationTransport transport) {
+        if (transport == null) {
+            throw new IllegalArgumentException("The transport can not be null.");
+        }
+        if (this.publisher != null) {
+            throw new IllegalStateException("A leader can not follow another one.");
+        }
+        if (!this.catalogs.isEmpty()) {
+            throw new IllegalStateException("A follower must be set before catalogs are opened.");
+        }
+        this.follower = new CatalogFollower(transport, this.registry, () -> this.metricsListener);
+    }
+
+    /**
+     * Copies the commits the leader published since the last replication and reopens searchers on them.
+     *
+     * @return the number of catalogs updated
+     * @throws IllegalStateException if the service is not a follower
+     */
+    public int replicate() {
+        CatalogFollower follower = this.follower;
+        if (follower == null) {
+            throw new IllegalStateException("The index service is not a follower.");
+        }
+        return follower.replicate();
+    }
+
+    /**
+     * Commits pending changes and releases all writers. The service can not be used after closed.
+     */
+    @Override
+    public void close() {
+        AsyncIndexer indexer;
+        synchronized (this) {
+            indexer = this.asyncIndexer;
+        }
+        if (indexer != null) {
+            // the queued operations are still processed
+            indexer.close();
+        }
+        this.closed = true;
+        CatalogPublisher publisher;
+        synchronized (this) {
+            if (this.scheduler != null) {
+                this.scheduler.shutdownNow();
+                this.scheduler = null;
+                this.refreshTask = null;
+                this.commitTask = null;
+                this.maintenanceTask = null;
+                this.replicationTask = null;
+            }
+            publisher = this.publisher;
+        }
+        if (publisher != null) {
+            // the last commits are published before the writers are closed, closing commits nothing more then
+            publisher.close(this.catalogs.values());
+        }
+        for (IndexCatalog catalog : this.catalogs.values()) {
+            try {
+                catalog.close();
+            } catch (IOException ex) {
+                this.handleError(catalog.getName(), "close", ex);
+            }
+        }
+        this.catalogs.clear();
+    }
+
+    public void createIndex(Object... items) {
+        this.checkWritable();
+        try {
+            this.addItems(items);
+        } catch (Exception ex) {
+            this.handleError(null, "index", ex);
+        }
+    }
+
+    /**
+     * Queues items to index, the future completes when the items are visible to searches.
+     *
+     * @param items the items to index
+     * @return the future of the operation
+     */
+    public CompletableFuture<Void> createIndexAsync(Object... items) {
+        return this.createIndexAsync(AckMode.VISIBLE, items);
+    }
+
+    /**
+     * Queues items to index, blocks while the queue is full. Items of different classes are queued apart,
+     * the operations of each class run in the order they are queued.
+     *
+     * @param ackMode when the returned future completes
+     * @param items   the items to index
+     * @return the future of the operation
+     * @throws IllegalStateException if the service is a follower
+     */
+    public CompletableFuture<Void> createIndexAsync(AckMode ackMode, Object... items) {
+        this.checkWritable();
+        Map<String, List<Object>> itemsByClass = new LinkedHashMap<>();
+        for (Object item : items) {
+            itemsByClass.computeIfAbsent(getRoute(item), route -> new ArrayList<>()).add(item);
+        }
+        AsyncIndexer indexer = this.getAsyncIndexer();
+        if (itemsByClass.size() <= 1) {
+            return indexer.submit(items.length == 0 ? "" : getRoute(items[0]), () -> this.addItems(items), ackMode);
+        }
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (Map.Entry<String, List<Object>> classItems : itemsByClass.entrySet()) {
+            Object[] batch = classItems.getValue().toArray();
+            futures.add(indexer.submit(classItems.getKey(), () -> this.addItems(batch), ackMode));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private static String getRoute(Object item) {
+        return item == null ? "" : item.getClass().getName();
+    }
+
+    public CompletableFuture<Void> updateIndexAsync(Object data) {
+        return this.updateIndexAsync(data, AckMode.VISIBLE);
+    }
+
+    /**
+     * Queues an item to update by its key, blocks while the queue is full.
+     *
+     * @param data    the item to update
+     * @param ackMode when the returned future completes
+     * @return the future of the operation, completes exceptionally with {@link NoKeyDefinedException} if no key
+     * @throws IllegalStateException if the service is a follower
+     */
+    public CompletableFuture<Void> updateIndexAsync(Object data, AckMode ackMode) {
+        this.checkWritable();
+        return this.getAsyncIndexer().submit(getRoute(data), () -> {
+            return this.upsertItems(Collections.singleton(data));
+        }, ackMode);
+    }
+
+    public <T> CompletableFuture<Void> deleteIndexAsync(Class<T> clazz, Object keyValue) {
+        return this.deleteIndexAsync(clazz, keyValue, AckMode.VISIBLE);
+    }
+
+    /**
+     * Queues an item to delete by its key, blocks while the queue is full.
+     *
+     * @param clazz    the class of the item
+     * @param keyValue the key value of the item
+     * @param ackMode  when the returned future completes
+     * @param <T>      the type of the item
+     * @return the future of the operation, completes exceptionally with {@link NoKeyDefinedException} if no key
+     * @throws IllegalStateException if the service is a follower
+     */
+    public <T> CompletableFuture<Void> deleteIndexAsync(Class<T> clazz, Object keyValue, AckMode ackMode) {
+        this.checkWritable();
+        return this.getAsyncIndexer().submit(clazz.getName(),
+            () -> Collections.singleton(this.deleteByKey(clazz, keyValue)), ackMode);
+    }
+
+    private Set<IndexCatalog> addItems(Object... items) throws IOException, InvalidKeyTypeException {
+        Set<IndexCatalog> changedCatalogs = new HashSet<>();
+        try {
+            for (Object item : items) {
+                long start = System.nanoTime();
+                IndexSchema schema = IndexSchema.of(item.getClass());
+                Document doc = schema.toDocument(item);
+                IndexCatalog catalog = this.write(this.getCatalog(schema, item), writer -> writer.addDocument(doc));
+                changedCatalogs.add(catalog);
+                this.metricsListener.onWrite(catalog.getName(), MetricsListener.Operation.INDEX, 1, System.nanoTime() - start);
+            }
+        } finally {
+            for (IndexCatalog catalog : changedCatalogs) {
+                catalog.markChanged();
+            }
+        }
+        return changedCatalogs;
+    }
+
+    private Set<IndexCatalog> upsertItems(Collection<?> items)
+        throws IOException, InvalidKeyTypeException, NoKeyDefinedException {
+        for (Object item : items) {
+            if (IndexSchema.of(item.getClass()).getKeyField() == null) {
+                throw new NoKeyDefinedException(item.getClass());
+            }
+        }
+
+        Set<IndexCatalog> changedCatalogs = new HashSet<>();
+        try {
+            for (Object item : items) {
+                long start = System.nanoTime();
+                IndexSchema schema = IndexSchema.of(item.getClass());
+                Document doc = schema.toDocument(item);
+                Object keyValue = schema.getKeyField().get(item);
+                IndexCatalog catalog = this.write(this.getCatalog(item.getClass(), keyValue), writer -> {
+                    if (keyValue == null || "".equals(keyValue.toString())) {
+                        writer.addDocument(doc);
                     } else {
-                        doc.add(new StringField(fieldName, fieldValue.toString(), org.apache.lucene.document.Field.Store.YES));
+                        writer.updateDocument(new Term(schema.getKeyField().getName(), keyValue.toString()), doc);
                     }
+                });
+                changedCatalogs.add(catalog);
+                this.metricsListener.onWrite(catalog.getName(), MetricsListener.Operation.UPDATE, 1, System.nanoTime() - start);
+            }
+        } finally {
+            for (IndexCatalog catalog : changedCatalogs) {
+                catalog.markChanged();
+            }
+        }
+        return changedCatalogs;
+    }
+
+    private IndexCatalog deleteByKey(Class<?> clazz, Object keyValue) throws IOException, NoKeyDefinedException {
+        IndexSchema.FieldMapping keyField = IndexSchema.of(clazz).getKeyField();
+        if (keyField == null) {
+            throw new NoKeyDefinedException(clazz);
+        }
+        IndexCatalog catalog = this.getCatalog(clazz, keyValue);
+        if (keyValue != null && !"".equals(keyValue.toString())) {
+            long start = System.nanoTime();
+            catalog = this.write(catalog, writer -> writer.deleteDocuments(new Term(keyField.getName(), keyValue.toString())));
+            this.metricsListener.onWrite(catalog.getName(), MetricsListener.Operation.DELETE, 1, System.nanoTime() - start);
+        }
+        return catalog;
+    }
+
+    private AsyncIndexer getAsyncIndexer() {
+        AsyncIndexer indexer = this.asyncIndexer;
+        if (indexer == null) {
+            synchronized (this) {
+                if (this.closed) {
+                    throw new IllegalStateException("The index service has been closed.");
                 }
-                writer.addDocument(doc);
+                if (this.asyncIndexer == null) {
+                    this.asyncIndexer = new AsyncIndexer(this.asyncQueueCapacity, this.asyncIndexerThreads);
+                }
+                indexer = this.asyncIndexer;
             }
+        }
+        return indexer;
+    }
+
+    /**
+     * Indexes a large number of items, the items can be instances of different classes.
+     * Documents are built and added to writers in parallel batches on the index executor,
+     * all changed catalogs are committed when finished.
+     *
+     * @param items the items to index
+     * @return the number of indexed items
+     * @throws IllegalStateException if the service is a follower
+     */
+    public long bulkIndex(Iterator<?> items) {
+        this.checkWritable();
+        Executor executor = this.getIndexExecutor();
+        int maxPendingBatches = Runtime.getRuntime().availableProcessors() * 2;
+        Deque<CompletableFuture<Integer>> pendingBatches = new ArrayDeque<>();
+        Set<IndexCatalog> changedCatalogs = ConcurrentHashMap.newKeySet();
+        long indexed = 0;
+
+        while (items.hasNext()) {
+            int size = this.batchSize;
+            List<Object> batch = new ArrayList<>(size);
+            while (batch.size() < size && items.hasNext()) {
+                Object item = items.next();
+                if (item != null) {
+                    batch.add(item);
+                }
+            }
+
+            // bounds the batches in memory when items come faster than they can be indexed
+            if (pendingBatches.size() >= maxPendingBatches) {
+                indexed += this.joinBatch(pendingBatches.poll());
+            }
+            pendingBatches.add(CompletableFuture.supplyAsync(() -> this.indexBatch(batch, changedCatalogs), executor));
+        }
+        while (!pendingBatches.isEmpty()) {
+            indexed += this.joinBatch(pendingBatches.poll());
+        }
+
+        for (IndexCatalog catalog : changedCatalogs) {
+            try {
+                catalog.commit();
+            } catch (IOException ex) {
+                this.handleError(catalog.getName(), "commit", ex);
+            }
+        }
+        return indexed;
+    }
+
+    public long bulkIndex(Iterable<?> items) {
+        return this.bulkIndex(items.iterator());
+    }
+
+    public long bulkIndex(Stream<?> items) {
+        return this.bulkIndex(items.iterator());
+    }
+
+    private int indexBatch(List<Object> batch, Set<IndexCatalog> changedCatalogs) {
+        Map<IndexCatalog, List<Document>> docs = new HashMap<>();
+        for (Object item : batch) {
+            try {
+                IndexSchema schema = IndexSchema.of(item.getClass());
+                Document doc = schema.toDocument(item);
+                docs.computeIfAbsent(this.getCatalog(schema, item), c -> new ArrayList<>()).add(doc);
+            } catch (InvalidKeyTypeException ex) {
+                this.handleError(item.getClass().getName(), "index", ex);
+            }
+        }
+
+        int indexed = 0;
+        for (Map.Entry<IndexCatalog, List<Document>> entry : docs.entrySet()) {
+            IndexCatalog catalog = entry.getKey();
+            try {
+                long start = System.nanoTime();
+                catalog = this.write(catalog, writer -> writer.addDocuments(entry.getValue()));
+                indexed += entry.getValue().size();
+                this.metricsListener.onWrite(catalog.getName(), MetricsListener.Operation.INDEX, entry.getValue().size(),
+                    System.nanoTime() - start);
+            } catch (IOException ex) {
+                this.handleError(catalog.getName(), "index", ex);
+            } finally {
+                catalog.markChanged();
+                changedCatalogs.add(catalog);
+            }
+        }
+        return indexed;
+    }
 
-            // close all writers
-            for (IndexWriter writer : writers.values()) {
-                writer.close();
-            }
-        } catch (Exception ex) {
-            ex.printStackTrace();
+    private int joinBatch(CompletableFuture<Integer> batch) {
+        try {
+            return batch.join();
+        } catch (CompletionException ex) {
+            this.handleError(null, "index", ex.getCause());
         }
+        return 0;
     }
 
     public void updateIndex(Object data) throws NoKeyDefinedException, IllegalAccessException {
-        Field keyField = this.getKeyField(data.getClass());
+        this.checkWritable();
+        IndexSchema.FieldMapping keyField = IndexSchema.of(data.getClass()).getKeyField();
         if (keyField == null) {
             throw new NoKeyDefinedException(data.getClass());
         }
 
-        keyField.setAccessible(true);
-        this.deleteIndex(data.getClass(), keyField.get(data));
-        this.createIndex(data);
+        try {
+            this.upsertItems(Collections.singleton(data));
+        } catch (IOException | InvalidKeyTypeException ex) {
+            this.handleError(data.getClass().getName(), "update", ex);
+        }
+    }
+
+    /**
+     * Adds or replaces items by their keys, the items can be instances of different classes.
+     * Each item is replaced atomically, searches never see an item missing while it is being updated.
+     *
+     * @param items the items to add or replace
+     * @throws NoKeyDefinedException if the class of any item has no key, nothing is changed in this case
+     * @throws IllegalStateException if the service is a follower
+     */
+    public void upsertAll(Collection<?> items) throws NoKeyDefinedException {
+        this.checkWritable();
+        try {
+            this.upsertItems(items);
+        } catch (IOException | InvalidKeyTypeException ex) {
+            this.handleError(null, "update", ex);
+        }
     }
 
+    /**
+     * Deletes the item with the key.
+     *
+     * @param clazz    the class of the item
+     * @param keyValue the key value of the item
+     * @param <T>      the type of the item
+     * @return the number of items deleted, it is approximate with a {@link #setRefreshInterval(long) refresh interval}
+     * since changes not visible yet are not counted
+     * @throws NoKeyDefinedException if the class has no key
+     * @throws IllegalStateException if the service is a follower
+     */
     public <T> long deleteIndex(Class<T> clazz, Object keyValue) throws NoKeyDefinedException {
+        this.checkWritable();
         if (keyValue == null || "".equals(keyValue.toString())) {
             return 0;
         }
 
+        IndexSchema.FieldMapping keyField = IndexSchema.of(clazz).getKeyField();
+        if (keyField == null) {
+            throw new NoKeyDefinedException(clazz);
+        }
+
         long result = 0;
         try {
-            boolean hasKeyDefinition = false;
-            IndexWriter writer = this.getWriter(clazz);
-            Field[] fields = clazz.getDeclaredFields();
-            for (Field field : fields) {
-                Indexable indexable = AnnotationHelper.getFieldAnnotation(Indexable.class, clazz, field.getName());
-                if (indexable != null && indexable.isKey()) {
-                    hasKeyDefinition = true;
-                    Term term = new Term(field.getName(), keyValue.toString());
-                    result = writer.deleteDocuments(term);
-                    break;
+            IndexCatalog catalog = this.incRef(this.getCatalog(clazz, keyValue));
+            try {
+                IndexWriter writer = catalog.getWriter();
+                Term term = new Term(keyField.getName(), keyValue.toString());
+                // deleteDocuments returns a sequence number, so count the matched items with the searcher of reads
+                IndexSearcher searcher = this.acquireSearcher(catalog);
+                try {
+                    result = searcher.count(new TermQuery(term));
+                } finally {
+                    this.releaseSearcher(catalog, searcher);
                 }
+                long start = System.nanoTime();
+                writer.deleteDocuments(term);
+                catalog.markChanged();
+                this.metricsListener.onWrite(catalog.getName(), MetricsListener.Operation.DELETE, (int) result,
+                    System.nanoTime() - start);
+            } finally {
+                this.decRef(catalog);
             }
-
-            if (!hasKeyDefinition) {
-                throw new NoKeyDefinedException(clazz);
-            }
-            writer.forceMergeDeletes();
-            writer.close();
             return result;
         } catch (IOException ex) {
-            ex.printStackTrace();
+            this.handleError(clazz.getName(), "delete", ex);
         }
 
         return result;
@@ -223,28 +1377,25 @@ public class IndexService {
     public <T> SearchResult<T> search(String fieldName, String fieldValue, Class<T> targetClass, int page, int pageSize) {
         if (page < 1) page = 1;
         if (pageSize < 1) pageSize = 10;
-        List<T> items = new ArrayList<>();
-        DirectoryReader reader = this.getReader(targetClass);
-        IndexSearcher searcher = new IndexSearcher(reader);
-        Query query = new TermQuery(new Term(fieldName, fieldValue));
-        Highlighter highlighter = this.getHighlighter(query);
-        try {
-            TopDocs topDocs = searcher.search(query, page * pageSize);
-            ScoreDoc[] scoreDocs = topDocs.scoreDocs;
-            for (int i = (page - 1) * pageSize; i < page * pageSize; i++) {
-                if (i >= scoreDocs.length) {
-                    break;
-                }
-                int docId = scoreDocs[i].doc;
-                items.add(doc2Entity(docId, searcher.doc(docId), targetClass, highlighter, reader));
-            }
-            reader.close();
-            return new SearchResult<>(page, pageSize, topDocs.totalHits > page * pageSize, items);
-        } catch (IOException ex) {
-            ex.printStackTrace();
-        }
+        return this.search(QueryCompiler.compileTerm(IndexSchema.of(targetClass), fieldName, fieldValue),
+            null, targetClass, page, pageSize, null, null);
+    }
 
-        return null;
+    /**
+     * Searches the page after the cursor, the cost does not grow with the page number.
+     *
+     * @param fieldName   the field name
+     * @param fieldValue  the exact value of the field
+     * @param targetClass the class of items
+     * @param cursor      the cursor from the previous result, null for the first page
+     * @param pageSize    the page size
+     * @param <T>         the type of items
+     * @return the search result with the cursor of the next page
+     */
+    public <T> SearchResult<T> search(String fieldName, String fieldValue, Class<T> targetClass, SearchCursor cursor, int pageSize) {
+        if (pageSize < 1) pageSize = 10;
+        return this.search(QueryCompiler.compileTerm(IndexSchema.of(targetClass), fieldName, fieldValue),
+            null, targetClass, 1, pageSize, cursor, null);
     }
 
     public <T> SearchResult<T> search(String keywords, Class<T> targetClass, int page, int pageSize) {
@@ -252,194 +1403,939 @@ public class IndexService {
     }
 
     public <T> SearchResult<T> search(String keywords, Class<T> targetClass, Map<String, Object> andCondition, int page, int pageSize) {
+        return this.search(keywords, targetClass, andCondition, page, pageSize, (SearchOptions) null);
+    }
+
+    /**
+     * Searches items by keywords.
+     *
+     * @param keywords     the keywords
+     * @param targetClass  the class of items
+     * @param andCondition the exact values of fields the items must have, a collection or an array matches any of its values
+     * @param page         the page number, starts from 1
+     * @param pageSize     the page size
+     * @param options      the options like highlighting, null for defaults
+     * @param <T>          the type of items
+     * @return the search result
+     */
+    public <T> SearchResult<T> search(String keywords, Class<T> targetClass, Map<String, Object> andCondition,
+                                      int page, int pageSize, SearchOptions options) {
+        if (page < 1) page = 1;
+        if (pageSize < 1) pageSize = 10;
+        return this.search(keywords, targetClass, andCondition, null, page, pageSize, null, options);
+    }
+
+    public <T> SearchResult<T> search(String keywords, Class<T> targetClass, Map<String, Object> andCondition,
+                                      SearchCriteria criteria, int page, int pageSize) {
+        return this.search(keywords, targetClass, andCondition, criteria, page, pageSize, (SearchOptions) null);
+    }
+
+    /**
+     * Searches items by keywords with ranges and sorting of numeric fields.
+     *
+     * @param keywords     the keywords
+     * @param targetClass  the class of items
+     * @param andCondition the exact values of fields the items must have, a collection or an array matches any of its values
+     * @param criteria     the ranges and sorting, null to sort by relevance
+     * @param page         the page number, starts from 1
+     * @param pageSize     the page size
+     * @param options      the options like highlighting, null for defaults
+     * @param <T>          the type of items
+     * @return the search result
+     * @throws IllegalArgumentException if a field of criteria is not numeric
+     */
+    public <T> SearchResult<T> search(String keywords, Class<T> targetClass, Map<String, Object> andCondition,
+                                      SearchCriteria criteria, int page, int pageSize, SearchOptions options) {
+        if (page < 1) page = 1;
+        if (pageSize < 1) pageSize = 10;
+        return this.search(keywords, targetClass, andCondition, criteria, page, pageSize, null, options);
+    }
+
+    public <T> SearchResult<T> search(String keywords, Class<T> targetClass, SearchCursor cursor, int pageSize) {
+        return this.search(keywords, targetClass, null, cursor, pageSize);
+    }
+
+    /**
+     * Searches the page after the cursor, the cost does not grow with the page number.
+     *
+     * @param keywords     the keywords
+     * @param targetClass  the class of items
+     * @param andCondition the exact values of fields the items must have, a collection or an array matches any of its values
+     * @param cursor       the cursor from the previous result, null for the first page
+     * @param pageSize     the page size
+     * @param <T>          the type of items
+     * @return the search result with the cursor of the next page
+     */
+    public <T> SearchResult<T> search(String keywords, Class<T> targetClass, Map<String, Object> andCondition, SearchCursor cursor, int pageSize) {
+        return this.search(keywords, targetClass, andCondition, cursor, pageSize, null);
+    }
+
+    public <T> SearchResult<T> search(String keywords, Class<T> targetClass, Map<String, Object> andCondition,
+                                      SearchCursor cursor, int pageSize, SearchOptions options) {
+        if (pageSize < 1) pageSize = 10;
+        return this.search(keywords, targetClass, andCondition, null, 1, pageSize, cursor, options);
+    }
+
+    public <T> SearchResult<T> search(String keywords, Class<T> targetClass, Map<String, Object> andCondition,
+                                      SearchCriteria criteria, SearchCursor cursor, int pageSize) {
+        return this.search(keywords, targetClass, andCondition, criteria, cursor, pageSize, null);
+    }
+
+    /**
+     * Searches the page after the cursor with ranges and sorting of numeric fields,
+     * the cursor MUST come from a search with the same criteria.
+     */
+    public <T> SearchResult<T> search(String keywords, Class<T> targetClass, Map<String, Object> andCondition,
+                                      SearchCriteria criteria, SearchCursor cursor, int pageSize, SearchOptions options) {
+        if (pageSize < 1) pageSize = 10;
+        return this.search(keywords, targetClass, andCondition, criteria, 1, pageSize, cursor, options);
+    }
+
+    public SearchResult<Object> search(String keywords, int page, int pageSize, Class<?>... targetClasses) {
+        return this.search(keywords, null, page, pageSize, targetClasses);
+    }
+
+    /**
+     * Searches items of several classes together, the catalogs are searched in parallel on the catalog executor
+     * and the hits are merged by score.
+     *
+     * @param keywords      the keywords
+     * @param andCondition  the exact values of fields the items must have, a collection or an array matches any of its values
+     * @param page          the page number, starts from 1
+     * @param pageSize      the page size
+     * @param targetClasses the classes of items
+     * @return the search result, items are instances of the classes they were indexed from
+     */
+    public SearchResult<Object> search(String keywords, Map<String, Object> andCondition, int page, int pageSize,
+                                       Class<?>... targetClasses) {
         if (page < 1) page = 1;
         if (pageSize < 1) pageSize = 10;
-        List<String> lstFields = this.getIndexableFields(targetClass);
-        List<BooleanClause.Occur> lstOccurs = new ArrayList<>();
-        for (String field : lstFields) {
-            lstOccurs.add(BooleanClause.Occur.SHOULD);
+        int topN = page * pageSize;
+        List<IndexCatalog> searchedCatalogs = new ArrayList<>();
+        List<Class<?>> searchedClasses = new ArrayList<>();
+        List<Query> queries = new ArrayList<>();
+        IndexSearcher[] searchers = null;
+        List<CompletableFuture<TopDocs>> futures = new ArrayList<>();
+        try {
+            for (Class<?> targetClass : targetClasses) {
+                IndexSchema schema = IndexSchema.of(targetClass);
+                Query query = QueryCompiler.applyFilters(schema, this.queryCompiler.compile(schema, keywords),
+                    andCondition, null);
+                for (IndexCatalog catalog : this.getCatalogs(targetClass)) {
+                    searchedCatalogs.add(catalog);
+                    searchedClasses.add(targetClass);
+                    queries.add(query);
+                }
+            }
+
+            // every shard of every class is searched as a shard of the merged hits
+            IndexSearcher[] shardSearchers = searchers = new IndexSearcher[searchedCatalogs.size()];
+            for (int i = 0; i < shardSearchers.length; i++) {
+                IndexCatalog catalog = searchedCatalogs.get(i);
+                Query query = queries.get(i);
+                int shard = i;
+                futures.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        shardSearchers[shard] = this.acquireSearcher(catalog);
+                        return shardSearchers[shard].search(query, topN);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                }, this.getCatalogExecutor()));
+            }
+
+            TopDocs[] shardHits = new TopDocs[futures.size()];
+            for (int i = 0; i < shardHits.length; i++) {
+                shardHits[i] = futures.get(i).join();
+            }
+
+            TopDocs merged = TopDocs.merge(topN, shardHits);
+            List<Object> items = new ArrayList<>();
+            for (int i = (page - 1) * pageSize; i < merged.scoreDocs.length; i++) {
+                ScoreDoc hit = merged.scoreDocs[i];
+                items.add(doc2Entity(hit.doc, searchedClasses.get(hit.shardIndex),
+                    shardSearchers[hit.shardIndex].getIndexReader()));
+            }
+            return new SearchResult<>(page, pageSize, merged.totalHits > topN, items, null, merged.totalHits);
+        } catch (ParseException ex) {
+            this.handleError(null, "search", ex);
+        } catch (CompletionException ex) {
+            this.handleError(null, "search", ex.getCause());
+        } finally {
+            // wait for all searches, so every acquired searcher is released
+            for (CompletableFuture<TopDocs> future : futures) {
+                future.exceptionally(ex -> null).join();
+            }
+            if (searchers != null) {
+                for (int i = 0; i < searchers.length; i++) {
+                    this.releaseSearcher(searchedCatalogs.get(i), searchers[i]);
+                }
+            }
         }
 
+        return null;
+    }
+
+    public <T> long count(String keywords, Class<T> targetClass) {
+        return this.count(keywords, targetClass, null, null);
+    }
 
+    /**
+     * Counts matched items without scoring or loading them, counts of all items or a single term are
+     * read from index statistics when there are no deletions.
+     *
+     * @param keywords     the keywords
+     * @param targetClass  the class of items
+     * @param andCondition the exact values of fields the items must have, a collection or an array matches any of its values
+     * @param criteria     the filters and ranges, sorting is ignored
+     * @param <T>          the type of items
+     * @return the number of matched items, -1 if failed
+     */
+    public <T> long count(String keywords, Class<T> targetClass, Map<String, Object> andCondition, SearchCriteria criteria) {
         try {
-            Query multiFieldQuery = MultiFieldQueryParser.parse(keywords,
-                lstFields.toArray(new String[lstFields.size()]),
-                lstOccurs.toArray(new BooleanClause.Occur[lstOccurs.size()]),
-                analyzer);
+            IndexSchema schema = IndexSchema.of(targetClass);
+            Query query = QueryCompiler.applyFilters(schema, this.queryCompiler.compile(schema, keywords),
+                andCondition, criteria);
+            long count = 0;
+            for (IndexCatalog catalog : this.getCatalogs(targetClass)) {
+                IndexSearcher searcher = this.acquireSearcher(catalog);
+                try {
+                    count += searcher.count(query);
+                } finally {
+                    this.releaseSearcher(catalog, searcher);
+                }
+            }
+            return count;
+        } catch (ParseException | IOException ex) {
+            this.handleError(targetClass.getName(), "search", ex);
+        }
 
-            BooleanQuery.Builder queryBuilder = new BooleanQuery.Builder();
-            queryBuilder.add(multiFieldQuery, BooleanClause.Occur.SHOULD);
+        return -1;
+    }
 
-            if (andCondition != null) {
-                for (String key : andCondition.keySet()) {
-                    if (andCondition.get(key) == null) {
-                        continue;
-                    }
+    public <T> boolean exists(String keywords, Class<T> targetClass) {
+        return this.exists(keywords, targetClass, null, null);
+    }
 
-                    TermQuery termQuery = new TermQuery(new Term(key, andCondition.get(key).toString()));
-                    queryBuilder.add(termQuery, BooleanClause.Occur.MUST);
+    /**
+     * Tells whether any item matches, the search stops at the first match without scoring or loading it.
+     *
+     * @param keywords     the keywords
+     * @param targetClass  the class of items
+     * @param andCondition the exact values of fields the items must have, a collection or an array matches any of its values
+     * @param criteria     the filters and ranges, sorting is ignored
+     * @param <T>          the type of items
+     * @return whether any item matches
+     */
+    public <T> boolean exists(String keywords, Class<T> targetClass, Map<String, Object> andCondition, SearchCriteria criteria) {
+        try {
+            IndexSchema schema = IndexSchema.of(targetClass);
+            Query query = QueryCompiler.applyFilters(schema, this.queryCompiler.compile(schema, keywords),
+                andCondition, criteria);
+            for (IndexCatalog catalog : this.getCatalogs(targetClass)) {
+                IndexSearcher searcher = this.acquireSearcher(catalog);
+                try {
+                    ExistsCollector collector = new ExistsCollector();
+                    searcher.search(query, collector);
+                    if (collector.isFound()) {
+                        return true;
+                    }
+                } finally {
+                    this.releaseSearcher(catalog, searcher);
                 }
             }
+        } catch (ParseException | IOException ex) {
+            this.handleError(targetClass.getName(), "search", ex);
+        }
 
-            Query query = queryBuilder.build();
-            List<T> items = new ArrayList<>();
-            DirectoryReader reader = this.getReader(targetClass);
-            IndexSearcher searcher = new IndexSearcher(reader);
-            TopDocs topDocs = searcher.search(query, page * pageSize);
-            ScoreDoc[] scoreDocs = topDocs.scoreDocs;
-            Highlighter highlighter = this.getHighlighter(query);
-            for (int i = (page - 1) * pageSize; i < page * pageSize; i++) {
-                if (i >= scoreDocs.length) {
-                    break;
+        return false;
+    }
+
+    public <T> Stream<T> stream(String keywords, Class<T> targetClass) {
+        return this.stream(keywords, targetClass, null, null);
+    }
+
+    /**
+     * Streams all matched items in index order without scoring, sorting or paging, for exports and reindexing.
+     * Items are loaded as the stream is consumed, so the memory does not grow with the number of matches.
+     * The stream reads the searcher of the time it is created and MUST be closed to release it,
+     * it is also released once all items are consumed.
+     *
+     * @param keywords     the keywords
+     * @param targetClass  the class of items
+     * @param andCondition the exact values of fields the items must have, a collection or an array matches any of its values
+     * @param criteria     the filters and ranges, sorting is ignored
+     * @param <T>          the type of items
+     * @return the lazy stream of items
+     */
+    public <T> Stream<T> stream(String keywords, Class<T> targetClass, Map<String, Object> andCondition,
+                                SearchCriteria criteria) {
+        List<IndexCatalog> shards = this.getCatalogs(targetClass);
+        IndexSearcher[] searchers = new IndexSearcher[shards.size()];
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                for (int i = 0; i < searchers.length; i++) {
+                    this.releaseSearcher(shards.get(i), searchers[i]);
                 }
-                int docId = scoreDocs[i].doc;
-                items.add(doc2Entity(docId, searcher.doc(docId), targetClass, highlighter, reader));
             }
+        };
+        try {
+            IndexSchema schema = IndexSchema.of(targetClass);
+            Query query = QueryCompiler.applyFilters(schema, this.queryCompiler.compile(schema, keywords),
+                andCondition, criteria);
+            DocIdIterator[] docIds = new DocIdIterator[searchers.length];
+            for (int i = 0; i < searchers.length; i++) {
+                searchers[i] = this.acquireSearcher(shards.get(i));
+                docIds[i] = new DocIdIterator(searchers[i], query);
+            }
+            Iterator<T> items = new Iterator<T>() {
+                // shards are streamed one after another
+                private int shard;
 
-            reader.close();
-            return new SearchResult<>(page, pageSize, topDocs.totalHits > page * pageSize, items);
-        } catch (IOException ex) {
-            ex.printStackTrace();
+                @Override
+                public boolean hasNext() {
+                    while (!released.get() && this.shard < docIds.length && !docIds[this.shard].hasNext()) {
+                        this.shard++;
+                    }
+                    boolean hasNext = !released.get() && this.shard < docIds.length;
+                    if (!hasNext) {
+                        release.run();
+                    }
+                    return hasNext;
+                }
+
+                @Override
+                public T next() {
+                    if (!this.hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return doc2Entity(docIds[this.shard].nextInt(), targetClass, searchers[this.shard].getIndexReader());
+                }
+            };
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(items, Spliterator.ORDERED), false)
+                .onClose(release);
+        } catch (ParseException | IOException ex) {
+            release.run();
+            this.handleError(targetClass.getName(), "search", ex);
+        }
+
+        return Stream.empty();
+    }
+
+    private <T> SearchResult<T> search(String keywords, Class<T> targetClass, Map<String, Object> andCondition,
+                                       SearchCriteria criteria, int page, int pageSize, SearchCursor cursor,
+                                       SearchOptions options) {
+        try {
+            long start = System.nanoTime();
+            IndexSchema schema = IndexSchema.of(targetClass);
+            Query multiFieldQuery = this.queryCompiler.compile(schema, keywords);
+
+            Query query = QueryCompiler.applyFilters(schema, multiFieldQuery, andCondition, criteria);
+            Sort sort = QueryCompiler.compileSort(schema, criteria);
+            this.metricsListener.onSearchPhase(targetClass.getName(), MetricsListener.Phase.PARSE, System.nanoTime() - start);
+            return this.search(query, sort, targetClass, page, pageSize, cursor, options);
         } catch (ParseException ex) {
-            ex.printStackTrace();
+            this.handleError(targetClass.getName(), "search", ex);
         } catch (IllegalStateException ex) {
             // case - searching with double quotes(like "time out") 
             //  exception: java.lang.IllegalStateException: field "id" was indexed without position data; cannot run PhraseQuery (phrase=id:"time out")
-            ex.printStackTrace();
+            this.handleError(targetClass.getName(), "search", ex);
         }
 
         return null;
     }
 
-    public <T> void deleteAll(Class<T> targetClass) {
-        IndexWriter writer = this.getWriter(targetClass);
+    private <T> SearchResult<T> search(Query query, Sort sort, Class<T> targetClass, int page, int pageSize,
+                                       SearchCursor cursor, SearchOptions options) {
+        String catalogName = targetClass.getName();
+        List<IndexCatalog> shards = this.getCatalogs(targetClass);
+        MetricsListener metrics = this.metricsListener;
+        IndexSearcher[] searchers = new IndexSearcher[shards.size()];
         try {
-            writer.deleteAll();
-            writer.close();
+            long start = System.nanoTime();
+            long[] versions = new long[searchers.length];
+            for (int i = 0; i < searchers.length; i++) {
+                searchers[i] = this.acquireSearcher(shards.get(i));
+                versions[i] = ((DirectoryReader) searchers[i].getIndexReader()).getVersion();
+            }
+            ResultCache.Key cacheKey = null;
+            if (this.resultCache.isEnabled()) {
+                cacheKey = ResultCache.newKey(catalogName, versions, query, sort, page, pageSize, cursor, options);
+                @SuppressWarnings("unchecked")
+                SearchResult<T> cached = (SearchResult<T>) this.resultCache.get(cacheKey);
+                metrics.onResultCache(catalogName, cached != null);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+
+            TopDocs topDocs;
+            int from;
+            boolean hasMore;
+            if (cursor == null) {
+                topDocs = this.search(searchers, query, sort, page * pageSize, null);
+                from = (page - 1) * pageSize;
+                hasMore = topDocs.totalHits > page * pageSize;
+            } else {
+                // one more hit tells whether there is a next page
+                page = cursor.getPage();
+                topDocs = this.search(searchers, query, sort, pageSize + 1, cursor);
+                from = 0;
+                hasMore = topDocs.scoreDocs.length > pageSize;
+            }
+            ScoreDoc[] scoreDocs = topDocs.scoreDocs;
+            long phaseEnd = System.nanoTime();
+            metrics.onSearchPhase(catalogName, MetricsListener.Phase.SEARCH, phaseEnd - start);
+
+            List<T> items = new ArrayList<>();
+            Set<String> projection = getProjection(IndexSchema.of(targetClass), options);
+            int to = Math.min(from + pageSize, scoreDocs.length);
+            ScoreDoc last = null;
+            for (int i = from; i < to; i++) {
+                last = scoreDocs[i];
+                items.add(doc2Entity(last.doc, targetClass, searchers[getShard(last, searchers.length)].getIndexReader(),
+                    projection));
+            }
+            long phaseStart = phaseEnd;
+            phaseEnd = System.nanoTime();
+            metrics.onSearchPhase(catalogName, MetricsListener.Phase.MATERIALIZE, phaseEnd - phaseStart);
+            if (options != null && !options.getHighlightFields().isEmpty() && !items.isEmpty()) {
+                for (int shard = 0; shard < searchers.length; shard++) {
+                    List<T> shardItems = new ArrayList<>();
+                    int[] docIds = new int[items.size()];
+                    for (int i = from; i < to; i++) {
+                        if (getShard(scoreDocs[i], searchers.length) == shard) {
+                            docIds[shardItems.size()] = scoreDocs[i].doc;
+                            shardItems.add(items.get(i - from));
+                        }
+                    }
+                    if (!shardItems.isEmpty()) {
+                        this.highlight(searchers[shard], query, Arrays.copyOf(docIds, shardItems.size()), shardItems,
+                            IndexSchema.of(targetClass), options.getHighlightFields());
+                    }
+                }
+                phaseStart = phaseEnd;
+                phaseEnd = System.nanoTime();
+                metrics.onSearchPhase(catalogName, MetricsListener.Phase.HIGHLIGHT, phaseEnd - phaseStart);
+            }
+
+            SearchCursor next = hasMore && last != null ? new SearchCursor(page + 1, last) : null;
+            SearchResult<T> result = new SearchResult<>(page, pageSize, hasMore, items, next, topDocs.totalHits);
+            if (cacheKey != null) {
+                this.resultCache.put(cacheKey, result);
+            }
+            metrics.onSearch(catalogName, topDocs.totalHits, items.size(), phaseEnd - start);
+            return result;
         } catch (IOException ex) {
-            ex.printStackTrace();
+            this.handleError(catalogName, "search", ex);
+        } finally {
+            for (int i = 0; i < searchers.length; i++) {
+                this.releaseSearcher(shards.get(i), searchers[i]);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Searches the top hits of all shards, the shards are searched in parallel on the catalog executor
+     * and their hits are merged in the order of the sort.
+     */
+    private TopDocs search(IndexSearcher[] searchers, Query query, Sort sort, int topN, SearchCursor cursor)
+        throws IOException {
+        if (searchers.length == 1) {
+            return search(searchers[0], query, sort, topN, cursor == null ? null : cursor.toScoreDoc());
+        }
+
+        List<CompletableFuture<TopDocs>> futures = new ArrayList<>();
+        for (int i = 0; i < searchers.length; i++) {
+            IndexSearcher searcher = searchers[i];
+            ScoreDoc after = cursor == null ? null : cursor.toScoreDoc(i, searcher.getIndexReader().maxDoc());
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return search(searcher, query, sort, topN, after);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }, this.getCatalogExecutor()));
+        }
+        // wait for all searches, so no searcher is released while it is searched
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).exceptionally(ex -> null).join();
+
+        try {
+            if (sort == null) {
+                TopDocs[] shardHits = new TopDocs[searchers.length];
+                for (int i = 0; i < shardHits.length; i++) {
+                    shardHits[i] = futures.get(i).join();
+                }
+                return TopDocs.merge(topN, shardHits);
+            }
+            TopFieldDocs[] shardHits = new TopFieldDocs[searchers.length];
+            for (int i = 0; i < shardHits.length; i++) {
+                shardHits[i] = (TopFieldDocs) futures.get(i).join();
+            }
+            return TopDocs.merge(sort, topN, shardHits);
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) ex.getCause()).getCause();
+            }
+            throw ex;
+        }
+    }
+
+    private static TopDocs search(IndexSearcher searcher, Query query, Sort sort, int topN, ScoreDoc after)
+        throws IOException {
+        if (after == null) {
+            return sort == null ? searcher.search(query, topN) : searcher.search(query, topN, sort);
+        }
+        return sort == null ? searcher.searchAfter(after, query, topN) : searcher.searchAfter(after, query, topN, sort);
+    }
+
+    /**
+     * @return the shard of a hit, the shard index of a catalog not sharded may be the index of a slice
+     */
+    private static int getShard(ScoreDoc hit, int shardCount) {
+        return shardCount == 1 ? 0 : hit.shardIndex;
+    }
+
+    /**
+     * Reclaims deleted items of the catalog for the specified class now, waits until merges finish.
+     *
+     * @param clazz the class of indexed items
+     * @param <T>   the type of indexed items
+     * @throws IllegalStateException if the service is a follower
+     */
+    public <T> void forceMergeDeletes(Class<T> clazz) {
+        this.checkWritable();
+        for (IndexCatalog catalog : this.getCatalogs(clazz)) {
+            try {
+                this.write(catalog, IndexWriter::forceMergeDeletes);
+            } catch (IOException ex) {
+                this.handleError(catalog.getName(), "maintenance", ex);
+            }
+        }
+    }
+
+    /**
+     * Deletes all items of the specified class.
+     *
+     * @param targetClass the class of indexed items
+     * @param <T>         the type of indexed items
+     * @throws IllegalStateException if the service is a follower
+     */
+    public <T> void deleteAll(Class<T> targetClass) {
+        this.checkWritable();
+        for (IndexCatalog catalog : this.getCatalogs(targetClass)) {
+            try {
+                this.write(catalog, IndexWriter::deleteAll);
+            } catch (IOException ex) {
+                this.handleError(catalog.getName(), "delete", ex);
+            }
         }
     }
 
+    /**
+     * Deletes all items of all catalogs.
+     *
+     * @throws IllegalStateException if the service is a follower
+     */
     public void deleteAll() {
-        if (!StringHelper.isNullOrWhiteSpace(this.dataPath) && IOHelper.isDirectoryExisted(this.dataPath)) {
+        this.checkWritable();
+        for (String catalogName : this.getCatalogNames()) {
+            IndexCatalog catalog = this.getCatalog(catalogName);
+            if (catalog == null) {
+                continue;
+            }
+            try {
+                this.write(catalog, IndexWriter::deleteAll);
+            } catch (IOException ex) {
+                this.handleError(catalogName, "delete", ex);
+            }
+        }
+    }
+
+    private void checkWritable() {
+        if (this.follower != null) {
+            throw new IllegalStateException("A follower can not be changed, it is replicated from its leader.");
+        }
+    }
+
+    private Set<String> getCatalogNames() {
+        Set<String> names = new TreeSet<>(this.catalogs.keySet());
+        if (this.directoryFactory.isPersistent() && IOHelper.isDirectoryExisted(this.dataPath)) {
             List<File> folders = IOHelper.getDirectories(this.dataPath);
             for (File file : folders) {
-                IndexWriter writer = this.getWriter(file.getName());
+                names.add(file.getName());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Opens the directory of a catalog, it is kept by the catalog until the service is closed.
+     */
+    private Directory getCatalogDirectory(String catalog) throws IOException {
+        Path path = Paths.get(this.dataPath, catalog);
+        return this.directoryFactory.open(path, catalog);
+    }
+
+    private IndexCatalog getCatalog(String catalog) {
+        if (this.closed) {
+            throw new IllegalStateException("The index service has been closed.");
+        }
+
+        try {
+            return this.catalogs.computeIfAbsent(catalog, name -> {
                 try {
-                    writer.deleteAll();
-                    writer.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
+                    Directory directory = this.getCatalogDirectory(name);
+                    CatalogFollower follower = this.follower;
+                    return follower == null ? this.openCatalog(name, directory) : follower.open(name, directory);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
                 }
+            });
+        } catch (UncheckedIOException ex) {
+            this.handleError(catalog, "open", ex.getCause());
+        }
+
+        return null;
+    }
+
+    private List<String> getCatalogNames(Class<?> clazz) {
+        return this.shardRouter.getCatalogNames(clazz);
+    }
+
+    /**
+     * @return the catalogs of all shards of the class, the ones failed to open are reported and skipped
+     */
+    private List<IndexCatalog> getCatalogs(Class<?> clazz) {
+        List<IndexCatalog> shards = new ArrayList<>();
+        for (String catalogName : this.getCatalogNames(clazz)) {
+            IndexCatalog catalog = this.getCatalog(catalogName);
+            if (catalog != null) {
+                shards.add(catalog);
             }
         }
+        return shards;
     }
 
-    private <T> Directory getCatalogDirectory(Class<T> targetClass) throws IOException {
-        return this.getCatalogDirectory(targetClass.getName());
+    /**
+     * Gets the catalog of the shard owning the key, items without key are spread randomly.
+     */
+    private IndexCatalog getCatalog(Class<?> clazz, Object keyValue) {
+        return this.getCatalog(this.shardRouter.getCatalogName(clazz, keyValue));
     }
 
-    private <T> Directory getCatalogDirectory(String catalog) throws IOException {
-        Path path = Paths.get(this.dataPath, catalog);
-        return FSDirectory.open(path);
+    private IndexCatalog getCatalog(IndexSchema schema, Object item) {
+        IndexSchema.FieldMapping keyField = schema.getKeyField();
+        return this.getCatalog(schema.getTargetClass(), keyField == null ? null : keyField.get(item));
+    }
+
+    private IndexCatalog openCatalog(String name, Directory directory) throws IOException {
+        IndexWriterConfig config = this.getIndexWriterConfig();
+        config.setCommitOnClose(true);
+        IndexCatalog created = new IndexCatalog(name, directory, config, this.getSearcherFactory(),
+            () -> this.metricsListener);
+        this.invalidateOnRefresh(created);
+        created.addCommitListener(() -> this.schedulePublish(created));
+        return created;
+    }
+
+    private IndexCatalog openReplica(String name, Directory directory) throws IOException {
+        IndexCatalog created = new IndexCatalog(name, directory, this.getSearcherFactory(), () -> this.metricsListener);
+        this.invalidateOnRefresh(created);
+        return created;
+    }
+
+    private void invalidateOnRefresh(IndexCatalog catalog) {
+        String className = ShardRouter.getClassName(catalog.getName());
+        catalog.addRefreshListener(new ReferenceManager.RefreshListener() {
+            @Override
+            public void beforeRefresh() {
+            }
+
+            @Override
+            public void afterRefresh(boolean didRefresh) {
+                if (didRefresh) {
+                    IndexService.this.resultCache.invalidate(className);
+                }
+            }
+        });
+    }
+
+    private IndexSearcher acquireSearcher(IndexCatalog catalog) throws IOException {
+        while (true) {
+            try {
+                return catalog.acquire(this.refreshInterval <= 0);
+            } catch (AlreadyClosedException ex) {
+                // the catalog has been replaced, releasing a searcher to either catalog only decreases its reader references
+                catalog = this.awaitReplaced(catalog);
+            }
+        }
     }
 
-    private <T> IndexWriter getWriter(Class<T> targetClass) {
-        return this.getWriter(targetClass.getName());
+    /**
+     * Holds a reference of the catalog, it MUST be released by {@link #decRef(IndexCatalog)}.
+     * A catalog replaced by a restore is swapped for the new one.
+     */
+    private IndexCatalog incRef(IndexCatalog catalog) {
+        while (!catalog.tryIncRef()) {
+            catalog = this.awaitReplaced(catalog);
+        }
+        return catalog;
     }
 
-    private IndexWriter getWriter(String catalog) {
+    private void decRef(IndexCatalog catalog) {
         try {
-            IndexWriterConfig config = this.getIndexWriterConfig();
-            config.setCommitOnClose(true);
-            return new IndexWriter(this.getCatalogDirectory(catalog), config);
+            catalog.decRef();
         } catch (IOException ex) {
-            ex.printStackTrace();
+            this.handleError(catalog.getName(), "close", ex);
         }
-
-        return null;
     }
 
-    private <T> DirectoryReader getReader(Class<T> targetClass) {
-        return this.getReader(targetClass.getName());
+    /**
+     * Waits until a closed catalog is replaced by a new one.
+     *
+     * @throws IllegalStateException if the service has been closed or the new catalog can not be opened
+     */
+    private IndexCatalog awaitReplaced(IndexCatalog catalog) {
+        while (true) {
+            IndexCatalog current = this.getCatalog(catalog.getName());
+            if (current == null) {
+                throw new IllegalStateException("The catalog " + catalog.getName() + " can not be opened.");
+            }
+            if (current != catalog) {
+                return current;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
     }
 
-    private DirectoryReader getReader(String catalog) {
+    /**
+     * Runs an operation on the writer of the catalog while holding a reference of it, and marks it as changed.
+     *
+     * @return the catalog written to, another one if the catalog has been replaced by a restore
+     */
+    private IndexCatalog write(IndexCatalog catalog, IndexCatalog.WriterOperation operation) throws IOException {
+        catalog = this.incRef(catalog);
         try {
-            return DirectoryReader.open(this.getCatalogDirectory(catalog));
-        } catch (IOException ex) {
-            ex.printStackTrace();
+            operation.run(catalog.getWriter());
+            catalog.markChanged();
+            return catalog;
+        } finally {
+            this.decRef(catalog);
+        }
+    }
+
+    private void releaseSearcher(IndexCatalog catalog, IndexSearcher searcher) {
+        if (searcher != null) {
+            try {
+                catalog.release(searcher);
+            } catch (IOException ex) {
+                this.handleError(catalog.getName(), "search", ex);
+            }
         }
-        return null;
     }
 
-    private List<String> getIndexableFields(Class<?> clazz) {
-        return CollectionHelper.convert(CollectionHelper.filter(ReflectionHelper.getAllFields(clazz), (f) -> {
-            Indexable indexable = AnnotationHelper.getFieldAnnotation(Indexable.class, clazz, f.getName());
-            return indexable == null || !indexable.ignore();
-        }), filed -> filed.getName());
+    private <T> T doc2Entity(int docId, Class<T> targetClass, IndexReader reader) {
+        return this.doc2Entity(docId, targetClass, reader, null);
     }
 
-    private <T> T doc2Entity(int docId, Document doc, Class<T> targetClass, Highlighter highlighter, IndexReader reader) {
+    /**
+     * @param fields the fields to load, see {@link #getProjection(IndexSchema, SearchOptions)}, null for all fields
+     */
+    private <T> T doc2Entity(int docId, Class<T> targetClass, IndexReader reader, Set<String> fields) {
         try {
-            return CollectionHelper.convertMap2(this.doc2Map(docId, doc, highlighter, reader), targetClass);
+            IndexSchema schema = IndexSchema.of(targetClass);
+            T entity = targetClass.cast(schema.newInstance());
+            reader.document(docId, new EntityFieldVisitor(schema, entity, fields));
+            return entity;
         } catch (Exception ex) {
-            ex.printStackTrace();
+            this.handleError(targetClass.getName(), "search", ex);
         }
 
         return null;
     }
 
-    private Map<String, Object> doc2Map(int docId, Document doc, Highlighter highlighter, IndexReader reader) {
-        List<IndexableField> documentFields = doc.getFields();
-        Map<String, Object> fieldMapping = new HashMap<>();
-        for (IndexableField documentField : documentFields) {
-            if (documentField.numericValue() != null) {
-                fieldMapping.put(documentField.name(), documentField.numericValue());
-            } else {
-                String fieldValue = documentField.stringValue();
-                if (highlighter != null) {
-                    try {
-                        TokenStream tokenStream = TokenSources.getTokenStream(documentField.name(), reader.getTermVectors(docId),
-                            fieldValue, this.analyzer, -1);
-                        String fragment = highlighter.getBestFragment(tokenStream, fieldValue);
-                        if (fragment != null) {
-                            fieldValue = fragment;
-                        }
-                    } catch (IOException ex) {
-                        ex.printStackTrace();
-                    } catch (InvalidTokenOffsetsException ex) {
-                        ex.printStackTrace();
+    /**
+     * @return the loadable fields of the schema projected by the options and the highlighted fields,
+     * null to load all fields
+     */
+    private static Set<String> getProjection(IndexSchema schema, SearchOptions options) {
+        if (options == null || options.getFields().isEmpty()) {
+            return null;
+        }
+        Set<String> fields = new HashSet<>();
+        for (String fieldName : options.getFields()) {
+            addLoadable(schema, fieldName, fields);
+        }
+        for (String fieldName : options.getHighlightFields()) {
+            addLoadable(schema, fieldName, fields);
+        }
+        return fields;
+    }
+
+    private static void addLoadable(IndexSchema schema, String fieldName, Set<String> fields) {
+        IndexSchema.FieldMapping field = schema.getField(fieldName);
+        if (field != null && field.isLoadable()) {
+            fields.add(fieldName);
+        }
+    }
+
+    /**
+     * Replaces values of the requested fields by their highlighted fragments, fields without matches are kept.
+     */
+    private void highlight(IndexSearcher searcher, Query query, int[] docIds, List<?> items,
+                           IndexSchema schema, Set<String> fieldNames) {
+        List<IndexSchema.FieldMapping> fields = new ArrayList<>();
+        for (String fieldName : fieldNames) {
+            IndexSchema.FieldMapping field = schema.getField(fieldName);
+            if (field != null && field.getType() == String.class && field.isLoadable()) {
+                fields.add(field);
+            }
+        }
+        if (fields.isEmpty()) {
+            return;
+        }
+
+        String[] names = new String[fields.size()];
+        int[] maxPassages = new int[fields.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = fields.get(i).getName();
+            maxPassages[i] = 1;
+        }
+
+        try {
+            Map<String, String[]> fragments = this.getHighlighter(searcher).highlightFields(names, query, docIds, maxPassages);
+            for (IndexSchema.FieldMapping field : fields) {
+                String[] fieldFragments = fragments.get(field.getName());
+                for (int i = 0; i < docIds.length; i++) {
+                    if (items.get(i) != null && fieldFragments[i] != null) {
+                        field.set(items.get(i), fieldFragments[i]);
                     }
                 }
-                fieldMapping.put(documentField.name(), fieldValue);
             }
+        } catch (IOException ex) {
+            this.handleError(schema.getTargetClass().getName(), "highlight", ex);
         }
-        return fieldMapping;
     }
 
-    private <T> Field getKeyField(Class<T> clazz) {
-        return CollectionHelper.first(CollectionHelper.array2List(clazz.getDeclaredFields()), field -> {
-            Indexable indexable = AnnotationHelper.getFieldAnnotation(Indexable.class, clazz, field.getName());
-            return indexable != null && indexable.isKey();
-        });
+    /**
+     * Reports the error to the metrics listener, it is printed if no listener is set.
+     */
+    private void handleError(String catalog, String operation, Throwable ex) {
+        this.metricsListener.onError(catalog, operation, ex);
     }
 
     private IndexWriterConfig getIndexWriterConfig() {
-        return new IndexWriterConfig(analyzer);
+        IndexWriterConfig config = new IndexWriterConfig(analyzer);
+        config.setRAMBufferSizeMB(this.ramBufferSizeMB);
+        config.setIndexDeletionPolicy(new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy()));
+        if (this.warmUpTerms) {
+            config.setMergedSegmentWarmer(CatalogWarmer.INSTANCE);
+        }
+        return config;
     }
 
-    private Highlighter getHighlighter(Query query) {
-        if (this.highlightPreTag == null || this.highlightPostTag == null) {
-            return null;
+    private synchronized ScheduledExecutorService getScheduler() {
+        if (this.scheduler == null) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "ftsi-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
         }
+        return this.scheduler;
+    }
 
-        QueryScorer scorer = new QueryScorer(query);
-        Formatter formatter = new SimpleHTMLFormatter(highlightPreTag, highlightPostTag);
-        Highlighter highlighter = new Highlighter(formatter, scorer);
-        Fragmenter fragmenter = new SimpleSpanFragmenter(scorer, highlightFragmentSize);
-        highlighter.setTextFragmenter(fragmenter);
+    private SearcherFactory getSearcherFactory() {
+        return new SearcherFactory() {
+            @Override
+            public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws IOException {
+                ExecutorService executor = IndexService.this.searchExecutor;
+                IndexSearcher searcher;
+                if (executor == null) {
+                    searcher = super.newSearcher(reader, previousReader);
+                } else {
+                    SlicePolicy policy = IndexService.this.slicePolicy;
+                    int maxSlices = IndexService.this.maxSlicesPerQuery;
+                    searcher = new IndexSearcher(reader, executor) {
+                        @Override
+                        protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+                            // called by the super constructor, only the captured values are assigned
+                            return policy.slice(leaves, maxSlices);
+                        }
+                    };
+                }
+                searcher.setQueryCache(IndexService.this.queryCache);
+                searcher.setQueryCachingPolicy(IndexService.this.queryCachingPolicy);
+                return searcher;
+            }
+        };
+    }
+
+    private UnifiedHighlighter getHighlighter(IndexSearcher searcher) {
+        UnifiedHighlighter highlighter = new UnifiedHighlighter(searcher, this.analyzer);
+        highlighter.setFormatter(new DefaultPassageFormatter(this.highlightPreTag, this.highlightPostTag, "... ", false));
+        highlighter.setBreakIterator(() -> LengthGoalBreakIterator.createClosestToLength(
+            BreakIterator.getSentenceInstance(Locale.ROOT), this.highlightFragmentSize));
+        // fields without matches keep their values
+        highlighter.setMaxNoHighlightPassages(0);
         return highlighter;
     }
+
+    /**
+     * The catalogs of this service for {@link CatalogSnapshots}, {@link CatalogPublisher} and {@link CatalogFollower}.
+     */
+    private class Registry implements CatalogRegistry {
+        @Override
+        public IndexCatalog get(String name) {
+            return IndexService.this.getCatalog(name);
+        }
+
+        @Override
+        public IndexCatalog incRef(IndexCatalog catalog) {
+            return IndexService.this.incRef(catalog);
+        }
+
+        @Override
+        public void decRef(IndexCatalog catalog) {
+            IndexService.this.decRef(catalog);
+        }
+
+        @Override
+        public Directory openDirectory(String name) throws IOException {
+            return IndexService.this.getCatalogDirectory(name);
+        }
+
+        @Override
+        public IndexCatalog open(String name, Directory directory) throws IOException {
+            return IndexService.this.openCatalog(name, directory);
+        }
+
+        @Override
+        public IndexCatalog openReplica(String name, Directory directory) throws IOException {
+            return IndexService.this.openReplica(name, directory);
+        }
+
+        @Override
+        public IndexCatalog replace(String name, Replacement replacement) throws IOException {
+            try {
+                return IndexService.this.catalogs.compute(name, (key, current) -> {
+                    try {
+                        return replacement.open(current);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+            } catch (UncheckedIOException ex) {
+                // the failed replacement left the current catalog in place
+                IndexService.this.catalogs.computeIfPresent(name, (key, current) -> current.isClosing() ? null : current);
+                throw ex.getCause();
+            } finally {
+                IndexService.this.resultCache.invalidate(ShardRouter.getClassName(name));
+            }
+        }
+    }
 }
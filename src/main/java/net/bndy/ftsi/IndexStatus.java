@@ -4,6 +4,11 @@ public class IndexStatus {
     private int num;
     private int numDeleted;
     private int total;
+    private int segmentCount;
+    private long ramBytesUsed;
+    private int pendingDocs;
+    private int mergingSegmentCount;
+    private boolean pendingMerges;
 
     public int getNum() {
         return num;
@@ -29,9 +34,78 @@ public class IndexStatus {
         this.total = total;
     }
 
+    /**
+     * @return the number of segments of the current searcher
+     */
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    public void setSegmentCount(int segmentCount) {
+        this.segmentCount = segmentCount;
+    }
+
+    /**
+     * @return the memory used by the writer for buffered changes, in bytes
+     */
+    public long getRamBytesUsed() {
+        return ramBytesUsed;
+    }
+
+    public void setRamBytesUsed(long ramBytesUsed) {
+        this.ramBytesUsed = ramBytesUsed;
+    }
+
+    /**
+     * @return the number of items buffered in memory and not flushed yet
+     */
+    public int getPendingDocs() {
+        return pendingDocs;
+    }
+
+    public void setPendingDocs(int pendingDocs) {
+        this.pendingDocs = pendingDocs;
+    }
+
+    /**
+     * @return the number of segments being merged
+     */
+    public int getMergingSegmentCount() {
+        return mergingSegmentCount;
+    }
+
+    public void setMergingSegmentCount(int mergingSegmentCount) {
+        this.mergingSegmentCount = mergingSegmentCount;
+    }
+
+    /**
+     * @return whether there are merges waiting to run
+     */
+    public boolean isPendingMerges() {
+        return pendingMerges;
+    }
+
+    public void setPendingMerges(boolean pendingMerges) {
+        this.pendingMerges = pendingMerges;
+    }
+
     public IndexStatus(int num, int numDeleted, int total) {
         this.num = num;
         this.numDeleted = numDeleted;
         this.total = total;
     }
+
+    /**
+     * Adds the numbers of another shard of the same catalog.
+     */
+    void add(IndexStatus other) {
+        this.num += other.num;
+        this.numDeleted += other.numDeleted;
+        this.total += other.total;
+        this.segmentCount += other.segmentCount;
+        this.ramBytesUsed += other.ramBytesUsed;
+        this.pendingDocs += other.pendingDocs;
+        this.mergingSegmentCount += other.mergingSegmentCount;
+        this.pendingMerges |= other.pendingMerges;
+    }
 }
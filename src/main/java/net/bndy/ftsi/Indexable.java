@@ -12,4 +12,16 @@ public @interface Indexable {
     boolean isKey() default false;
     boolean ignore() default false;
     IndexType stringIndexType() default IndexType.FUZZY;
+
+    /**
+     * Indexes offsets of a fuzzy String field, so it can be highlighted without analyzing the text again.
+     */
+    boolean highlight() default false;
+
+    /**
+     * Stores the value to return it in search results. A field not stored is still searched, but it is left
+     * unset in results and can not be highlighted. It keeps large texts out of the stored fields read per hit.
+     * The key is always stored.
+     */
+    boolean store() default true;
 }
@@ -0,0 +1,88 @@
+package net.bndy.ftsi;
+
+/**
+ * Receives the metrics of an {@link IndexService}, like the durations of writes, commits, refreshes and search phases.
+ * All methods do nothing by default, so a listener only overrides what it records, for example as Micrometer timers
+ * and counters tagged by the catalog. Methods are called on the threads doing the work and should return quickly.
+ * Gauges like writer RAM and segment counts are read by {@link IndexService#status(Class)}.
+ */
+public interface MetricsListener {
+
+    /**
+     * Records nothing, only errors are printed to the standard error.
+     */
+    MetricsListener NONE = new MetricsListener() {
+        @Override
+        public void onError(String catalog, String operation, Throwable error) {
+            error.printStackTrace();
+        }
+    };
+
+    enum Operation {
+        INDEX, UPDATE, DELETE
+    }
+
+    enum Phase {
+        /**
+         * Parsing keywords and building filters.
+         */
+        PARSE,
+        /**
+         * Matching and collecting hits.
+         */
+        SEARCH,
+        /**
+         * Loading returned items from stored fields.
+         */
+        MATERIALIZE,
+        HIGHLIGHT
+    }
+
+    /**
+     * @param catalog   the catalog name
+     * @param operation the operation
+     * @param count     the number of items written
+     * @param nanos     the duration in nanoseconds
+     */
+    default void onWrite(String catalog, Operation operation, int count, long nanos) {
+    }
+
+    default void onCommit(String catalog, long nanos) {
+    }
+
+    /**
+     * Called when a refresh opened a new searcher, the writes before are visible.
+     */
+    default void onRefresh(String catalog, long nanos) {
+    }
+
+    default void onSearchPhase(String catalog, Phase phase, long nanos) {
+    }
+
+    /**
+     * Called when a search finished, not for results served by the result cache.
+     *
+     * @param catalog   the catalog name
+     * @param totalHits the number of matched items
+     * @param returned  the number of returned items
+     * @param nanos     the duration in nanoseconds
+     */
+    default void onSearch(String catalog, long totalHits, int returned, long nanos) {
+    }
+
+    /**
+     * Called for each lookup of the result cache when it is enabled.
+     */
+    default void onResultCache(String catalog, boolean hit) {
+    }
+
+    /**
+     * Called when an operation failed, the error is not printed once a listener is set.
+     *
+     * @param catalog   the catalog name, null if not for a catalog
+     * @param operation the failed operation
+     * @param error     the error
+     */
+    default void onError(String catalog, String operation, Throwable error) {
+    }
+}
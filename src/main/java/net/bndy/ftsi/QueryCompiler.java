@@ -0,0 +1,460 @@
+package net.bndy.ftsi;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.DoublePoint;
+import org.apache.lucene.document.FloatPoint;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.*;
+import org.apache.lucene.util.BytesRef;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles keywords to queries by the schema of the searched class.
+ * Text goes to analyzed fields only, exact fields match the whole term and numeric fields get point queries.
+ * Compiled queries are immutable and cached in a LRU cache by class and keywords.
+ */
+class QueryCompiler {
+
+    private final Analyzer analyzer;
+    private final Map<String, Query> cache;
+    private volatile int cacheSize;
+
+    QueryCompiler(Analyzer analyzer, int cacheSize) {
+        this.analyzer = analyzer;
+        this.cacheSize = cacheSize;
+        this.cache = new LinkedHashMap<String, Query>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Query> eldest) {
+                return size() > QueryCompiler.this.cacheSize;
+            }
+        };
+    }
+
+    void setCacheSize(int cacheSize) {
+        synchronized (this.cache) {
+            this.cacheSize = cacheSize;
+            if (cacheSize == 0) {
+                this.cache.clear();
+            }
+        }
+    }
+
+    /**
+     * Compiles keywords in the query parser syntax, blank keywords match all items.
+     */
+    Query compile(IndexSchema schema, String keywords) throws ParseException {
+        if (keywords == null || keywords.trim().isEmpty()) {
+            return new MatchAllDocsQuery();
+        }
+
+        String key = schema.getTargetClass().getName() + '\u0000' + keywords;
+        Query query;
+        synchronized (this.cache) {
+            query = this.cache.get(key);
+        }
+        if (query == null) {
+            // query parsers are not thread-safe, a new one is cheap
+            query = new SchemaQueryParser(schema, this.analyzer).parse(keywords);
+            if (this.cacheSize > 0) {
+                synchronized (this.cache) {
+                    this.cache.put(key, query);
+                }
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Compiles an exact value of a field, numeric fields get point queries.
+     */
+    static Query compileTerm(IndexSchema schema, String fieldName, String value) {
+        IndexSchema.FieldMapping field = schema.getField(fieldName);
+        if (field != null && field.isNumeric()) {
+            Query query = newExactQuery(field, value);
+            return query == null ? new MatchNoDocsQuery("Not a number for field " + fieldName) : query;
+        }
+        return new TermQuery(new Term(fieldName, value));
+    }
+
+    /**
+     * @return the point query of a numeric field or null if the value is not a number of the field type
+     */
+    static Query newExactQuery(IndexSchema.FieldMapping field, String value) {
+        try {
+            switch (field.getKind()) {
+                case LONG:
+                    return LongPoint.newExactQuery(field.getName(), Long.parseLong(value));
+                case INT:
+                    return IntPoint.newExactQuery(field.getName(), Integer.parseInt(value));
+                case FLOAT:
+                    return FloatPoint.newExactQuery(field.getName(), Float.parseFloat(value));
+                case DOUBLE:
+                    return DoublePoint.newExactQuery(field.getName(), Double.parseDouble(value));
+                default:
+                    return null;
+            }
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates a point range query of a numeric field.
+     *
+     * @param lower the lower bound, null for unbounded
+     * @param upper the upper bound, null for unbounded
+     */
+    static Query newRangeQuery(IndexSchema.FieldMapping field, Number lower, Number upper,
+                               boolean includeLower, boolean includeUpper) {
+        String name = field.getName();
+        switch (field.getKind()) {
+            case LONG:
+            case INT: {
+                if (isNaN(lower) || isNaN(upper)) {
+                    return new MatchNoDocsQuery();
+                }
+                // fractional bounds are rounded inwards, the bound itself can not match so exclusivity does not apply
+                long min = lower == null ? Long.MIN_VALUE
+                    : hasFraction(lower) ? (long) Math.ceil(lower.doubleValue()) : lower.longValue();
+                long max = upper == null ? Long.MAX_VALUE
+                    : hasFraction(upper) ? (long) Math.floor(upper.doubleValue()) : upper.longValue();
+                if (lower != null && !includeLower && !hasFraction(lower)) {
+                    if (min == Long.MAX_VALUE) {
+                        return new MatchNoDocsQuery();
+                    }
+                    min++;
+                }
+                if (upper != null && !includeUpper && !hasFraction(upper)) {
+                    if (max == Long.MIN_VALUE) {
+                        return new MatchNoDocsQuery();
+                    }
+                    max--;
+                }
+                if (field.getKind() == IndexSchema.FieldKind.LONG) {
+                    return LongPoint.newRangeQuery(name, min, max);
+                }
+                if (min > Integer.MAX_VALUE || max < Integer.MIN_VALUE) {
+                    return new MatchNoDocsQuery();
+                }
+                int intMin = (int) Math.max(min, Integer.MIN_VALUE);
+                int intMax = (int) Math.min(max, Integer.MAX_VALUE);
+                return IntPoint.newRangeQuery(name, intMin, intMax);
+            }
+            case FLOAT: {
+                float min = lower == null ? Float.NEGATIVE_INFINITY : lower.floatValue();
+                float max = upper == null ? Float.POSITIVE_INFINITY : upper.floatValue();
+                if (lower != null && !includeLower) {
+                    min = FloatPoint.nextUp(min);
+                }
+                if (upper != null && !includeUpper) {
+                    max = FloatPoint.nextDown(max);
+                }
+                return FloatPoint.newRangeQuery(name, min, max);
+            }
+            case DOUBLE: {
+                double min = lower == null ? Double.NEGATIVE_INFINITY : lower.doubleValue();
+                double max = upper == null ? Double.POSITIVE_INFINITY : upper.doubleValue();
+                if (lower != null && !includeLower) {
+                    min = DoublePoint.nextUp(min);
+                }
+                if (upper != null && !includeUpper) {
+                    max = DoublePoint.nextDown(max);
+                }
+                return DoublePoint.newRangeQuery(name, min, max);
+            }
+            default:
+                throw new IllegalArgumentException("The field " + name + " is not numeric.");
+        }
+    }
+
+    private static boolean hasFraction(Number value) {
+        if (value instanceof Float || value instanceof Double) {
+            double d = value.doubleValue();
+            return !Double.isInfinite(d) && d != Math.floor(d);
+        }
+        return false;
+    }
+
+    private static boolean isNaN(Number value) {
+        return (value instanceof Float || value instanceof Double) && Double.isNaN(value.doubleValue());
+    }
+
+    /**
+     * Adds the and conditions and the filters and ranges of criteria to a query as non-scoring clauses,
+     * so they are not scored and can be cached by the query cache of searchers.
+     * A condition of a collection or an array matches any of its values.
+     */
+    static Query applyFilters(IndexSchema schema, Query query, Map<String, Object> andCondition, SearchCriteria criteria) {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        builder.add(query, BooleanClause.Occur.MUST);
+        boolean filtered = false;
+        if (andCondition != null) {
+            for (Map.Entry<String, Object> entry : andCondition.entrySet()) {
+                if (entry.getValue() == null) {
+                    continue;
+                }
+                builder.add(compileValues(schema, entry.getKey(), entry.getValue()), BooleanClause.Occur.FILTER);
+                filtered = true;
+            }
+        }
+        if (criteria != null) {
+            for (SearchCriteria.Filter filter : criteria.getFilters()) {
+                builder.add(compileValues(schema, filter.getField(), filter.getValues()),
+                    filter.isNegated() ? BooleanClause.Occur.MUST_NOT : BooleanClause.Occur.FILTER);
+                filtered = true;
+            }
+            for (SearchCriteria.Range range : criteria.getRanges()) {
+                builder.add(newRangeQuery(getNumericField(schema, range.getField()), range.getMin(), range.getMax(),
+                    range.isIncludeMin(), range.isIncludeMax()), BooleanClause.Occur.FILTER);
+                filtered = true;
+            }
+        }
+        return filtered ? builder.build() : query;
+    }
+
+    /**
+     * Compiles a single value or any value of a collection or an array, numeric fields get point queries.
+     */
+    static Query compileValues(IndexSchema schema, String fieldName, Object value) {
+        List<String> values = new ArrayList<>();
+        if (value instanceof Collection) {
+            for (Object item : (Collection<?>) value) {
+                if (item != null) {
+                    values.add(item.toString());
+                }
+            }
+        } else if (value != null && value.getClass().isArray()) {
+            for (int i = 0; i < Array.getLength(value); i++) {
+                Object item = Array.get(value, i);
+                if (item != null) {
+                    values.add(item.toString());
+                }
+            }
+        } else if (value != null) {
+            values.add(value.toString());
+        }
+
+        if (values.size() == 1) {
+            return compileTerm(schema, fieldName, values.get(0));
+        }
+        IndexSchema.FieldMapping field = schema.getField(fieldName);
+        if (field != null && field.isNumeric()) {
+            return newSetQuery(field, values);
+        }
+        List<BytesRef> terms = new ArrayList<>(values.size());
+        for (String item : values) {
+            terms.add(new BytesRef(item));
+        }
+        return terms.isEmpty() ? new MatchNoDocsQuery("No values for field " + fieldName) : new TermInSetQuery(fieldName, terms);
+    }
+
+    /**
+     * @return the point set query of a numeric field, values which are not numbers of the field type match nothing
+     */
+    static Query newSetQuery(IndexSchema.FieldMapping field, List<String> values) {
+        String name = field.getName();
+        int count = 0;
+        switch (field.getKind()) {
+            case LONG: {
+                long[] points = new long[values.size()];
+                for (String value : values) {
+                    try {
+                        points[count] = Long.parseLong(value);
+                        count++;
+                    } catch (NumberFormatException ex) {
+                        // never matches
+                    }
+                }
+                return count == 0 ? new MatchNoDocsQuery() : LongPoint.newSetQuery(name, Arrays.copyOf(points, count));
+            }
+            case INT: {
+                int[] points = new int[values.size()];
+                for (String value : values) {
+                    try {
+                        points[count] = Integer.parseInt(value);
+                        count++;
+                    } catch (NumberFormatException ex) {
+                        // never matches
+                    }
+                }
+                return count == 0 ? new MatchNoDocsQuery() : IntPoint.newSetQuery(name, Arrays.copyOf(points, count));
+            }
+            case FLOAT: {
+                float[] points = new float[values.size()];
+                for (String value : values) {
+                    try {
+                        points[count] = Float.parseFloat(value);
+                        count++;
+                    } catch (NumberFormatException ex) {
+                        // never matches
+                    }
+                }
+                return count == 0 ? new MatchNoDocsQuery() : FloatPoint.newSetQuery(name, Arrays.copyOf(points, count));
+            }
+            case DOUBLE: {
+                double[] points = new double[values.size()];
+                for (String value : values) {
+                    try {
+                        points[count] = Double.parseDouble(value);
+                        count++;
+                    } catch (NumberFormatException ex) {
+                        // never matches
+                    }
+                }
+                return count == 0 ? new MatchNoDocsQuery() : DoublePoint.newSetQuery(name, Arrays.copyOf(points, count));
+            }
+            default:
+                throw new IllegalArgumentException("The field " + name + " is not numeric.");
+        }
+    }
+
+    /**
+     * Compiles the orders of criteria to a sort on doc values, ties are broken by doc id so cursors are stable.
+     *
+     * @return the sort or null to sort by relevance
+     */
+    static Sort compileSort(IndexSchema schema, SearchCriteria criteria) {
+        if (criteria == null || criteria.getOrders().isEmpty()) {
+            return null;
+        }
+
+        List<SortField> sortFields = new ArrayList<>();
+        for (SearchCriteria.Order order : criteria.getOrders()) {
+            IndexSchema.FieldMapping field = getNumericField(schema, order.getField());
+            SortField.Type type;
+            switch (field.getKind()) {
+                case LONG:
+                    type = SortField.Type.LONG;
+                    break;
+                case INT:
+                    type = SortField.Type.INT;
+                    break;
+                case FLOAT:
+                    type = SortField.Type.FLOAT;
+                    break;
+                default:
+                    type = SortField.Type.DOUBLE;
+                    break;
+            }
+            sortFields.add(new SortField(field.getName(), type, order.isDescending()));
+        }
+        sortFields.add(SortField.FIELD_DOC);
+        return new Sort(sortFields.toArray(new SortField[sortFields.size()]));
+    }
+
+    private static IndexSchema.FieldMapping getNumericField(IndexSchema schema, String fieldName) {
+        IndexSchema.FieldMapping field = schema.getField(fieldName);
+        if (field == null || !field.isNumeric()) {
+            throw new IllegalArgumentException("The field " + fieldName + " of "
+                + schema.getTargetClass().getName() + " is not numeric.");
+        }
+        return field;
+    }
+
+    private static Number parseNumber(IndexSchema.FieldMapping field, String value) throws ParseException {
+        if (value == null || "*".equals(value)) {
+            return null;
+        }
+        try {
+            switch (field.getKind()) {
+                case LONG:
+                case INT:
+                    return Long.parseLong(value);
+                default:
+                    return Double.parseDouble(value);
+            }
+        } catch (NumberFormatException ex) {
+            throw new ParseException("Not a number for field " + field.getName() + ": " + value);
+        }
+    }
+
+    private static String[] getTextFields(IndexSchema schema) {
+        List<String> fields = new ArrayList<>();
+        for (String name : schema.getSearchableFields()) {
+            IndexSchema.FieldMapping field = schema.getField(name);
+            if (field != null && field.getKind() == IndexSchema.FieldKind.TEXT) {
+                fields.add(name);
+            }
+        }
+        return fields.toArray(new String[fields.size()]);
+    }
+
+    /**
+     * Routes each term to fields by their types instead of analyzing it for every field.
+     */
+    private static class SchemaQueryParser extends MultiFieldQueryParser {
+
+        private final IndexSchema schema;
+
+        SchemaQueryParser(IndexSchema schema, Analyzer analyzer) {
+            super(getTextFields(schema), analyzer);
+            this.schema = schema;
+        }
+
+        @Override
+        protected Query getFieldQuery(String field, String queryText, boolean quoted) throws ParseException {
+            if (field != null) {
+                IndexSchema.FieldMapping mapping = this.schema.getField(field);
+                if (mapping == null || mapping.getKind() == IndexSchema.FieldKind.TEXT) {
+                    return super.getFieldQuery(field, queryText, quoted);
+                }
+                return compileTerm(this.schema, field, queryText);
+            }
+
+            List<Query> clauses = new ArrayList<>();
+            Query textQuery = super.getFieldQuery(null, queryText, quoted);
+            if (textQuery != null) {
+                clauses.add(textQuery);
+            }
+            for (String name : this.schema.getSearchableFields()) {
+                IndexSchema.FieldMapping mapping = this.schema.getField(name);
+                if (mapping == null || mapping.getKind() == IndexSchema.FieldKind.TEXT) {
+                    continue;
+                }
+                if (mapping.isNumeric()) {
+                    Query numericQuery = newExactQuery(mapping, queryText);
+                    if (numericQuery != null) {
+                        clauses.add(numericQuery);
+                    }
+                } else {
+                    clauses.add(new TermQuery(new Term(name, queryText)));
+                }
+            }
+            return clauses.isEmpty() ? null : this.getMultiFieldQuery(clauses);
+        }
+
+        @Override
+        protected Query getFieldQuery(String field, String queryText, int slop) throws ParseException {
+            if (field != null) {
+                IndexSchema.FieldMapping mapping = this.schema.getField(field);
+                if (mapping != null && mapping.getKind() != IndexSchema.FieldKind.TEXT) {
+                    // exact and numeric fields have no positions, a phrase matches the whole value
+                    return compileTerm(this.schema, field, queryText);
+                }
+            }
+            return super.getFieldQuery(field, queryText, slop);
+        }
+
+        @Override
+        protected Query getRangeQuery(String field, String part1, String part2,
+                                      boolean startInclusive, boolean endInclusive) throws ParseException {
+            IndexSchema.FieldMapping mapping = field == null ? null : this.schema.getField(field);
+            if (mapping != null && mapping.isNumeric()) {
+                return QueryCompiler.newRangeQuery(mapping, parseNumber(mapping, part1), parseNumber(mapping, part2),
+                    startInclusive, endInclusive);
+            }
+            return super.getRangeQuery(field, part1, part2, startInclusive, endInclusive);
+        }
+    }
+}
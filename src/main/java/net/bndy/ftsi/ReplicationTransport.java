@@ -0,0 +1,66 @@
+package net.bndy.ftsi;
+
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Set;
+
+/**
+ * Carries commits of catalogs from a leader index service to its followers,
+ * see {@link IndexService#publish(ReplicationTransport)} and {@link IndexService#follow(ReplicationTransport)}.
+ * Index files are never modified once written, so a follower only copies the files it does not have.
+ */
+public interface ReplicationTransport {
+
+    /**
+     * Publishes a commit of a catalog in place of the one published before, called by the leader after each commit.
+     *
+     * @param catalog the catalog name
+     * @param commit  the commit, its files are kept by the leader until it is released
+     * @param release releases the commit, it MUST be run once followers no longer need the files of the commit,
+     *                or when the commit can not be published
+     */
+    void publish(String catalog, IndexCommit commit, Runnable release) throws IOException;
+
+    /**
+     * Returned by {@link #fetch(String, Directory)} when the commit published does not follow the last commit
+     * of the follower, as the leader has been restored since. The follower copies it to an empty directory then.
+     */
+    long RESET = -2;
+
+    /**
+     * Copies the files of the last commit published for a catalog to a follower,
+     * the segments file is copied last so the target never holds an incomplete commit.
+     *
+     * @param catalog the catalog name
+     * @param target  the directory of the catalog on the follower
+     * @return the generation of the commit copied, -1 if the follower has it already,
+     * or {@link #RESET} if it does not follow the last commit of the follower, nothing is copied then
+     */
+    long fetch(String catalog, Directory target) throws IOException;
+
+    /**
+     * @return the names of the catalogs published
+     */
+    Set<String> getCatalogs() throws IOException;
+
+    /**
+     * Followers in the same process copy the files straight from the directories of the leader,
+     * a published commit is kept until it is replaced and no follower is copying it.
+     */
+    static ReplicationTransport inProcess() {
+        return new InProcessTransport();
+    }
+
+    /**
+     * A stand-in for a shared file system, the leader copies each commit to a folder per catalog under the path
+     * and followers copy from there. A follower copying while the commit is replaced catches up next time.
+     *
+     * @param path the shared path
+     */
+    static ReplicationTransport files(String path) {
+        return new FileTransport(Paths.get(path));
+    }
+}
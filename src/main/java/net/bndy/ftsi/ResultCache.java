@@ -0,0 +1,168 @@
+package net.bndy.ftsi;
+
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches search results by the compiled query and the versions of the readers they were searched on, one per shard,
+ * so a result is never served once a newer reader is opened. Entries of a catalog are dropped when
+ * its searcher is refreshed, the least recently used entries and entries older than the TTL are evicted.
+ */
+class ResultCache {
+
+    private final Map<Key, CachedResult> entries;
+    private volatile int maxSize;
+    private volatile long ttl;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    ResultCache(int maxSize, long ttl) {
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        this.entries = new LinkedHashMap<Key, CachedResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedResult> eldest) {
+                if (size() > ResultCache.this.maxSize) {
+                    evictionCount.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    boolean isEnabled() {
+        return this.maxSize > 0;
+    }
+
+    void setMaxSize(int maxSize) {
+        synchronized (this.entries) {
+            this.maxSize = maxSize;
+            Iterator<Key> keys = this.entries.keySet().iterator();
+            while (this.entries.size() > maxSize && keys.hasNext()) {
+                keys.next();
+                keys.remove();
+                this.evictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    void setTtl(long ttl) {
+        this.ttl = ttl;
+    }
+
+    SearchResult<?> get(Key key) {
+        CachedResult cached;
+        synchronized (this.entries) {
+            cached = this.entries.get(key);
+            if (cached != null && this.ttl > 0 && System.currentTimeMillis() - cached.created > this.ttl) {
+                this.entries.remove(key);
+                this.evictionCount.incrementAndGet();
+                cached = null;
+            }
+        }
+        if (cached == null) {
+            this.missCount.incrementAndGet();
+            return null;
+        }
+        this.hitCount.incrementAndGet();
+        return cached.result;
+    }
+
+    void put(Key key, SearchResult<?> result) {
+        if (!this.isEnabled()) {
+            return;
+        }
+        synchronized (this.entries) {
+            this.entries.put(key, new CachedResult(result));
+        }
+    }
+
+    /**
+     * Drops all results of a catalog.
+     */
+    void invalidate(String catalog) {
+        synchronized (this.entries) {
+            Iterator<Key> keys = this.entries.keySet().iterator();
+            while (keys.hasNext()) {
+                if (keys.next().catalog.equals(catalog)) {
+                    keys.remove();
+                    this.invalidationCount.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    CacheStats getStats() {
+        int size;
+        synchronized (this.entries) {
+            size = this.entries.size();
+        }
+        return new CacheStats(this.hitCount.get(), this.missCount.get(), this.evictionCount.get(),
+            this.invalidationCount.get(), size);
+    }
+
+    static Key newKey(String catalog, long[] versions, Query query, Sort sort, int page, int pageSize,
+                      SearchCursor cursor, SearchOptions options) {
+        List<Object> parts = new ArrayList<>();
+        parts.add(query);
+        parts.add(sort);
+        parts.add(cursor == null ? page : cursor.encode());
+        parts.add(pageSize);
+        parts.add(options == null ? null : new ArrayList<>(options.getHighlightFields()));
+        parts.add(options == null ? null : new ArrayList<>(options.getFields()));
+        return new Key(catalog, versions, parts);
+    }
+
+    static class Key {
+        private final String catalog;
+        private final long[] versions;
+        private final List<Object> parts;
+        private final int hash;
+
+        private Key(String catalog, long[] versions, List<Object> parts) {
+            this.catalog = catalog;
+            this.versions = versions;
+            this.parts = parts;
+            this.hash = Objects.hash(catalog, Arrays.hashCode(versions), parts);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return this.hash == other.hash && Arrays.equals(this.versions, other.versions)
+                && this.catalog.equals(other.catalog) && this.parts.equals(other.parts);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static class CachedResult {
+        private final SearchResult<?> result;
+        private final long created = System.currentTimeMillis();
+
+        CachedResult(SearchResult<?> result) {
+            this.result = result;
+        }
+    }
+}
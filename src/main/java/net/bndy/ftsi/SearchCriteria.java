@@ -0,0 +1,164 @@
+package net.bndy.ftsi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Typed criteria of a search next to the and conditions, like filters, numeric ranges and sorting.
+ * Filters and ranges match items without affecting their scores, sorting runs on doc values of numeric fields.
+ */
+public class SearchCriteria {
+
+    private final List<Filter> filters = new ArrayList<>();
+    private final List<Range> ranges = new ArrayList<>();
+    private final List<Order> orders = new ArrayList<>();
+
+    /**
+     * Matches items whose field has any of the exact values.
+     *
+     * @param field  the field
+     * @param values the exact values
+     * @return this criteria
+     */
+    public SearchCriteria filter(String field, Object... values) {
+        this.filters.add(new Filter(field, Arrays.asList(values), false));
+        return this;
+    }
+
+    /**
+     * Excludes items whose field has any of the exact values.
+     *
+     * @param field  the field
+     * @param values the exact values
+     * @return this criteria
+     */
+    public SearchCriteria exclude(String field, Object... values) {
+        this.filters.add(new Filter(field, Arrays.asList(values), true));
+        return this;
+    }
+
+    /**
+     * Matches items whose numeric field is between min and max, both inclusive.
+     *
+     * @param field the numeric field
+     * @param min   the min value, null for unbounded
+     * @param max   the max value, null for unbounded
+     * @return this criteria
+     */
+    public SearchCriteria range(String field, Number min, Number max) {
+        return this.range(field, min, true, max, true);
+    }
+
+    public SearchCriteria range(String field, Number min, boolean includeMin, Number max, boolean includeMax) {
+        this.ranges.add(new Range(field, min, includeMin, max, includeMax));
+        return this;
+    }
+
+    /**
+     * Sorts items by a numeric field ascending, items are sorted by relevance if no sort specified.
+     * Float and double fields indexed by older versions must be reindexed first, they were truncated to longs.
+     *
+     * @param field the numeric field
+     * @return this criteria
+     */
+    public SearchCriteria sortBy(String field) {
+        return this.sortBy(field, false);
+    }
+
+    public SearchCriteria sortBy(String field, boolean descending) {
+        this.orders.add(new Order(field, descending));
+        return this;
+    }
+
+    public List<Filter> getFilters() {
+        return Collections.unmodifiableList(filters);
+    }
+
+    public List<Range> getRanges() {
+        return Collections.unmodifiableList(ranges);
+    }
+
+    public List<Order> getOrders() {
+        return Collections.unmodifiableList(orders);
+    }
+
+    public static class Filter {
+        private final String field;
+        private final List<Object> values;
+        private final boolean negated;
+
+        Filter(String field, List<Object> values, boolean negated) {
+            this.field = field;
+            this.values = Collections.unmodifiableList(values);
+            this.negated = negated;
+        }
+
+        public String getField() {
+            return field;
+        }
+
+        public List<Object> getValues() {
+            return values;
+        }
+
+        public boolean isNegated() {
+            return negated;
+        }
+    }
+
+    public static class Range {
+        private final String field;
+        private final Number min;
+        private final boolean includeMin;
+        private final Number max;
+        private final boolean includeMax;
+
+        Range(String field, Number min, boolean includeMin, Number max, boolean includeMax) {
+            this.field = field;
+            this.min = min;
+            this.includeMin = includeMin;
+            this.max = max;
+            this.includeMax = includeMax;
+        }
+
+        public String getField() {
+            return field;
+        }
+
+        public Number getMin() {
+            return min;
+        }
+
+        public boolean isIncludeMin() {
+            return includeMin;
+        }
+
+        public Number getMax() {
+            return max;
+        }
+
+        public boolean isIncludeMax() {
+            return includeMax;
+        }
+    }
+
+    public static class Order {
+        private final String field;
+        private final boolean descending;
+
+        Order(String field, boolean descending) {
+            this.field = field;
+            this.descending = descending;
+        }
+
+        public String getField() {
+            return field;
+        }
+
+        public boolean isDescending() {
+            return descending;
+        }
+    }
+}
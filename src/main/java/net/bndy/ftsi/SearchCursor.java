@@ -0,0 +1,203 @@
+package net.bndy.ftsi;
+
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.*;
+import java.util.Base64;
+
+/**
+ * An opaque position in search results, used to fetch the page after it without collecting the previous pages.
+ * It can be passed to clients as a string by {@link #encode()} and restored by {@link #decode(String)}.
+ */
+public final class SearchCursor implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_INT = 1;
+    private static final byte TYPE_LONG = 2;
+    private static final byte TYPE_FLOAT = 3;
+    private static final byte TYPE_DOUBLE = 4;
+    private static final byte TYPE_BYTES = 5;
+
+    private final int page;
+    private final int doc;
+    private final float score;
+    private final int shardIndex;
+    private final Object[] fields;
+
+    SearchCursor(int page, ScoreDoc after) {
+        this(page, after.doc, after.score, after.shardIndex, after instanceof FieldDoc ? ((FieldDoc) after).fields : null);
+    }
+
+    private SearchCursor(int page, int doc, float score, int shardIndex, Object[] fields) {
+        this.page = page;
+        this.doc = doc;
+        this.score = score;
+        this.shardIndex = shardIndex;
+        this.fields = fields;
+    }
+
+    /**
+     * @return the number of the page this cursor points to
+     */
+    public int getPage() {
+        return page;
+    }
+
+    ScoreDoc toScoreDoc() {
+        return this.fields == null
+            ? new ScoreDoc(this.doc, this.score, this.shardIndex)
+            : new FieldDoc(this.doc, this.score, this.fields, this.shardIndex);
+    }
+
+    /**
+     * Gets the position to search a shard after. Merged hits with the same sort values are ordered by shard,
+     * so the shards before the one of the cursor skip such hits and the shards after it keep them.
+     * Sorts always end with the doc order, so the last sort value is the doc id.
+     *
+     * @param shard  the index of the shard
+     * @param maxDoc the max doc of the reader of the shard, the position can not be beyond its last doc
+     */
+    ScoreDoc toScoreDoc(int shard, int maxDoc) {
+        if (shard == this.shardIndex) {
+            return this.toScoreDoc();
+        }
+        if (this.fields == null) {
+            return new ScoreDoc(shard < this.shardIndex ? maxDoc - 1 : -1, this.score, shard);
+        }
+        int doc = Math.min(shard < this.shardIndex ? this.doc : this.doc - 1, maxDoc - 1);
+        Object[] shardFields = this.fields.clone();
+        shardFields[shardFields.length - 1] = doc;
+        return new FieldDoc(doc, this.score, shardFields, shard);
+    }
+
+    /**
+     * @return the URL safe string of this cursor
+     */
+    public String encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(this.page);
+            out.writeInt(this.doc);
+            out.writeFloat(this.score);
+            out.writeInt(this.shardIndex);
+            out.writeInt(this.fields == null ? -1 : this.fields.length);
+            if (this.fields != null) {
+                for (Object field : this.fields) {
+                    writeField(out, field);
+                }
+            }
+            out.flush();
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Restores a cursor from {@link #encode()}.
+     *
+     * @param value the encoded cursor
+     * @return the cursor
+     * @throws IllegalArgumentException if the value is not a valid cursor
+     */
+    public static SearchCursor decode(String value) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(value)));
+            int page = in.readInt();
+            int doc = in.readInt();
+            float score = in.readFloat();
+            int shardIndex = in.readInt();
+            int length = in.readInt();
+            if (length > in.available()) {
+                throw new IOException("Invalid number of sort values " + length);
+            }
+            Object[] fields = null;
+            if (length >= 0) {
+                fields = new Object[length];
+                for (int i = 0; i < length; i++) {
+                    fields[i] = readField(in);
+                }
+            }
+            return new SearchCursor(page, doc, score, shardIndex, fields);
+        } catch (IOException | RuntimeException ex) {
+            throw new IllegalArgumentException("Invalid search cursor: " + value, ex);
+        }
+    }
+
+    private static void writeField(DataOutputStream out, Object field) throws IOException {
+        if (field == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (field instanceof Integer) {
+            out.writeByte(TYPE_INT);
+            out.writeInt((Integer) field);
+        } else if (field instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong((Long) field);
+        } else if (field instanceof Float) {
+            out.writeByte(TYPE_FLOAT);
+            out.writeFloat((Float) field);
+        } else if (field instanceof Double) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble((Double) field);
+        } else if (field instanceof BytesRef) {
+            BytesRef bytesRef = (BytesRef) field;
+            out.writeByte(TYPE_BYTES);
+            out.writeInt(bytesRef.length);
+            out.write(bytesRef.bytes, bytesRef.offset, bytesRef.length);
+        } else {
+            throw new IllegalStateException("Unsupported sort value: " + field.getClass().getName());
+        }
+    }
+
+    private static Object readField(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_INT:
+                return in.readInt();
+            case TYPE_LONG:
+                return in.readLong();
+            case TYPE_FLOAT:
+                return in.readFloat();
+            case TYPE_DOUBLE:
+                return in.readDouble();
+            case TYPE_BYTES:
+                int length = in.readInt();
+                if (length < 0 || length > in.available()) {
+                    throw new IOException("Invalid sort value length " + length);
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                return new BytesRef(bytes);
+            default:
+                throw new IOException("Unknown sort value type " + type);
+        }
+    }
+
+    /**
+     * Cursors are serialized by their encoded form since sort values are not all serializable.
+     */
+    private Object writeReplace() {
+        return new SerializedForm(this.encode());
+    }
+
+    private static class SerializedForm implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String value;
+
+        SerializedForm(String value) {
+            this.value = value;
+        }
+
+        private Object readResolve() {
+            return SearchCursor.decode(this.value);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package net.bndy.ftsi;
+
+import net.bndy.lib.ReflectionHelper;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Options of a search, they change what is returned for the matched items but not which items are matched.
+ */
+public class SearchOptions {
+
+    private final Set<String> highlightFields = new LinkedHashSet<>();
+    private final Set<String> fields = new LinkedHashSet<>();
+
+    /**
+     * Highlights the matched keywords in the specified fields of returned items, nothing is highlighted by default.
+     * Fields marked by {@link Indexable#highlight()} are highlighted from the offsets in the index,
+     * other fields have to be analyzed again.
+     *
+     * @param fields the String fields to highlight
+     * @return this options
+     */
+    public SearchOptions highlight(String... fields) {
+        Collections.addAll(this.highlightFields, fields);
+        return this;
+    }
+
+    public Set<String> getHighlightFields() {
+        return Collections.unmodifiableSet(highlightFields);
+    }
+
+    /**
+     * Loads only the specified fields of returned items, other fields are left unset and their stored values
+     * are not decoded. All stored fields are loaded by default. Highlighted fields are always loaded.
+     *
+     * @param fields the names of the fields to load
+     * @return this options
+     */
+    public SearchOptions fields(String... fields) {
+        Collections.addAll(this.fields, fields);
+        return this;
+    }
+
+    /**
+     * Loads only the fields declared by a projection, see {@link #fields(String...)}.
+     *
+     * @param projection a class whose field names are loaded, or an interface whose getters name the fields
+     * @return this options
+     */
+    public SearchOptions fields(Class<?> projection) {
+        if (projection.isInterface()) {
+            for (Method method : projection.getMethods()) {
+                String name = method.getName();
+                if (method.getParameterCount() == 0 && method.getReturnType() != void.class) {
+                    if (name.startsWith("get") && name.length() > 3) {
+                        this.fields.add(Character.toLowerCase(name.charAt(3)) + name.substring(4));
+                    } else if (name.startsWith("is") && name.length() > 2) {
+                        this.fields.add(Character.toLowerCase(name.charAt(2)) + name.substring(3));
+                    }
+                }
+            }
+        } else {
+            for (Field field : ReflectionHelper.getAllFields(projection)) {
+                if (!Modifier.isStatic(field.getModifiers()) && !field.isSynthetic()) {
+                    this.fields.add(field.getName());
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return the names of the fields to load, empty to load all stored fields
+     */
+    public Set<String> getFields() {
+        return Collections.unmodifiableSet(fields);
+    }
+}
@@ -10,6 +10,8 @@ public class SearchResult<T> implements Serializable {
     private int pageSize;
     private boolean hasMore;
     private List<T> content;
+    private SearchCursor cursor;
+    private long totalHits = -1;
 
     public int getPage() {
         return page;
@@ -27,16 +29,39 @@ public class SearchResult<T> implements Serializable {
         return content;
     }
 
+    /**
+     * @return the cursor to fetch the next page, null if there is no more
+     */
+    public SearchCursor getCursor() {
+        return cursor;
+    }
+
+    /**
+     * @return the number of all matched items, -1 if not counted
+     */
+    public long getTotalHits() {
+        return totalHits;
+    }
 
     public SearchResult(int page, int pageSize, boolean hasMore) {
         this(page, pageSize, hasMore, new ArrayList<>());
     }
 
     public SearchResult(int page, int pageSize, boolean hasMore, List<T> content) {
+        this(page, pageSize, hasMore, content, null);
+    }
+
+    public SearchResult(int page, int pageSize, boolean hasMore, List<T> content, SearchCursor cursor) {
+        this(page, pageSize, hasMore, content, cursor, -1);
+    }
+
+    public SearchResult(int page, int pageSize, boolean hasMore, List<T> content, SearchCursor cursor, long totalHits) {
         this.page = page;
         this.pageSize = pageSize;
         this.hasMore = hasMore;
         this.content = content;
+        this.cursor = cursor;
+        this.totalHits = totalHits;
     }
 
     public void appendContent(T entity) {
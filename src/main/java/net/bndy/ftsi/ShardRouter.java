@@ -0,0 +1,73 @@
+package net.bndy.ftsi;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Maps the classes of indexed items to the catalogs of their shards, a shard catalog is named by the class name
+ * and the shard number. Items are routed by the hash of their keys, so an item is always updated in the same shard.
+ */
+class ShardRouter {
+
+    private final ConcurrentMap<Class<?>, Integer> shardCounts = new ConcurrentHashMap<>();
+
+    /**
+     * @return the number of shards set for the class, or the one of its {@link Sharded} annotation
+     */
+    int getShardCount(Class<?> clazz) {
+        Integer shardCount = this.shardCounts.get(clazz);
+        return shardCount == null ? IndexSchema.of(clazz).getShardCount() : shardCount;
+    }
+
+    void setShardCount(Class<?> clazz, int shardCount) {
+        this.shardCounts.put(clazz, shardCount);
+    }
+
+    /**
+     * @return the names of the catalogs of all shards of the class, only the class name if not sharded
+     */
+    List<String> getCatalogNames(Class<?> clazz) {
+        int shardCount = this.getShardCount(clazz);
+        if (shardCount == 1) {
+            return Collections.singletonList(clazz.getName());
+        }
+        List<String> names = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            names.add(getShardName(clazz, i));
+        }
+        return names;
+    }
+
+    /**
+     * @return the name of the catalog of the shard owning the key, items without key are spread randomly
+     */
+    String getCatalogName(Class<?> clazz, Object keyValue) {
+        int shardCount = this.getShardCount(clazz);
+        if (shardCount == 1) {
+            return clazz.getName();
+        }
+        int shard = keyValue == null || "".equals(keyValue.toString())
+            ? ThreadLocalRandom.current().nextInt(shardCount)
+            : Math.floorMod(StringHelper.murmurhash3_x86_32(new BytesRef(keyValue.toString()), 0), shardCount);
+        return getShardName(clazz, shard);
+    }
+
+    /**
+     * @return the name of the class a catalog is for, class names never contain '-'
+     */
+    static String getClassName(String catalogName) {
+        int index = catalogName.lastIndexOf('-');
+        return index < 0 ? catalogName : catalogName.substring(0, index);
+    }
+
+    private static String getShardName(Class<?> clazz, int shard) {
+        return clazz.getName() + "-" + shard;
+    }
+}
@@ -0,0 +1,21 @@
+package net.bndy.ftsi;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Splits the catalog of a class into shards, items are routed to a shard by the hash of their keys.
+ * Writes are spread across the writers of the shards and searches run on the shards in parallel.
+ * The number of shards MUST NOT change once items are indexed, or items would not be found by their keys.
+ */
+@Target({ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Sharded {
+
+    /**
+     * @return the number of shards, at least 1
+     */
+    int value();
+}
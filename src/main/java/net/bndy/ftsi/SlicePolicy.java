@@ -0,0 +1,63 @@
+package net.bndy.ftsi;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Groups the segments of a catalog into slices, each slice of a query is searched by one task of the search executor.
+ */
+@FunctionalInterface
+public interface SlicePolicy {
+
+    /**
+     * One slice per segment up to the max slices, the remaining segments go to the last slice.
+     */
+    SlicePolicy PER_SEGMENT = (leaves, maxSlices) -> {
+        int count = Math.min(leaves.size(), Math.max(maxSlices, 1));
+        IndexSearcher.LeafSlice[] slices = new IndexSearcher.LeafSlice[count];
+        for (int i = 0; i < count; i++) {
+            List<LeafReaderContext> group = i == count - 1 ? leaves.subList(i, leaves.size()) : leaves.subList(i, i + 1);
+            slices[i] = new IndexSearcher.LeafSlice(group.toArray(new LeafReaderContext[group.size()]));
+        }
+        return slices;
+    };
+
+    /**
+     * Up to the max slices with about the same number of documents each, larger segments are assigned first.
+     */
+    SlicePolicy BALANCED = (leaves, maxSlices) -> {
+        int count = Math.min(leaves.size(), Math.max(maxSlices, 1));
+        List<LeafReaderContext> sorted = new ArrayList<>(leaves);
+        sorted.sort((a, b) -> Integer.compare(b.reader().maxDoc(), a.reader().maxDoc()));
+        List<List<LeafReaderContext>> groups = new ArrayList<>(count);
+        long[] docs = new long[count];
+        for (int i = 0; i < count; i++) {
+            groups.add(new ArrayList<>());
+        }
+        for (LeafReaderContext leaf : sorted) {
+            int smallest = 0;
+            for (int i = 1; i < count; i++) {
+                if (docs[i] < docs[smallest]) {
+                    smallest = i;
+                }
+            }
+            groups.get(smallest).add(leaf);
+            docs[smallest] += leaf.reader().maxDoc();
+        }
+        IndexSearcher.LeafSlice[] slices = new IndexSearcher.LeafSlice[count];
+        for (int i = 0; i < count; i++) {
+            slices[i] = new IndexSearcher.LeafSlice(groups.get(i).toArray(new LeafReaderContext[0]));
+        }
+        return slices;
+    };
+
+    /**
+     * @param leaves    the segments of the catalog
+     * @param maxSlices the max number of slices searched concurrently by a query
+     * @return the slices, at most max slices and every segment in exactly one slice
+     */
+    IndexSearcher.LeafSlice[] slice(List<LeafReaderContext> leaves, int maxSlices);
+}
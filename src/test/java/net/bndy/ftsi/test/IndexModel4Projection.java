@@ -0,0 +1,58 @@
+package net.bndy.ftsi.test;
+
+import net.bndy.ftsi.Indexable;
+
+public class IndexModel4Projection {
+    @Indexable(isKey = true)
+    private String id;
+    private String title;
+    private String content;
+    @Indexable(store = false)
+    private String body;
+    private Integer rank;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public void setContent(String content) {
+        this.content = content;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public void setBody(String body) {
+        this.body = body;
+    }
+
+    public Integer getRank() {
+        return rank;
+    }
+
+    public void setRank(Integer rank) {
+        this.rank = rank;
+    }
+
+    public interface Summary {
+        String getId();
+        String getTitle();
+    }
+}
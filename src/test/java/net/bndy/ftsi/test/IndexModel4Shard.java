@@ -0,0 +1,36 @@
+package net.bndy.ftsi.test;
+
+import net.bndy.ftsi.Indexable;
+import net.bndy.ftsi.Sharded;
+
+@Sharded(3)
+public class IndexModel4Shard {
+    @Indexable(isKey = true)
+    private String id;
+    private String title;
+    private Integer rank;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public Integer getRank() {
+        return rank;
+    }
+
+    public void setRank(Integer rank) {
+        this.rank = rank;
+    }
+}
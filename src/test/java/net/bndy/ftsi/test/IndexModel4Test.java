@@ -31,5 +31,6 @@ public class IndexModel4Test {
         this.content = content;
     }
 
+    @Indexable(highlight = true)
     private String content;
 }
@@ -1,17 +1,43 @@
 package net.bndy.ftsi.test;
 
+import net.bndy.ftsi.AckMode;
+import net.bndy.ftsi.DirectoryFactory;
 import net.bndy.ftsi.IndexService;
 import net.bndy.ftsi.IndexStatus;
+import net.bndy.ftsi.MetricsListener;
 import net.bndy.ftsi.NoKeyDefinedException;
+import net.bndy.ftsi.ReplicationTransport;
+import net.bndy.ftsi.SearchCriteria;
+import net.bndy.ftsi.SearchCursor;
+import net.bndy.ftsi.SearchOptions;
 import net.bndy.ftsi.SearchResult;
+import net.bndy.ftsi.SlicePolicy;
 import net.bndy.lib.CollectionHelper;
 import net.bndy.lib.IOHelper;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LRUQueryCache;
+import org.apache.lucene.search.QueryCachingPolicy;
 import org.junit.*;
 import org.junit.runners.MethodSorters;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class IndexServiceTest {
@@ -62,6 +88,37 @@ public class IndexServiceTest {
     @AfterClass public static void destroy() {
         indexService.deleteAll();
         Assert.assertEquals(indexService.getTotals(), 0);
+        indexService.close();
+    }
+
+    private final List<IndexService> services = new ArrayList<>();
+    private final List<String> folders = new ArrayList<>();
+
+    /**
+     * Deletes the folder of a test now and after the test, whether it passes or not.
+     */
+    private String newFolder(String folder) {
+        IOHelper.forceDelete(folder);
+        folders.add(folder);
+        return folder;
+    }
+
+    /**
+     * Keeps a service of a test to close after the test, whether it passes or not.
+     */
+    private IndexService open(IndexService service) {
+        services.add(service);
+        return service;
+    }
+
+    @After public void cleanUp() {
+        // services close before their folders are deleted, closing a service twice does nothing
+        for (IndexService service : services) {
+            service.close();
+        }
+        for (String folder : folders) {
+            IOHelper.forceDelete(folder);
+        }
     }
 
 
@@ -84,6 +141,14 @@ public class IndexServiceTest {
     public void t2_testDelete() throws NoKeyDefinedException {
         long deleted = indexService.deleteIndex(IndexModel4Test.class, "1");
         Assert.assertEquals(deleted, 1);
+
+        // an item not searched yet is counted as the searches would see it
+        IndexModel4Test added = new IndexModel4Test();
+        added.setId("added");
+        indexService.createIndex(added);
+        Assert.assertEquals(indexService.deleteIndex(IndexModel4Test.class, "added"), 1);
+        Assert.assertEquals(indexService.status(IndexModel4Test.class).getNum(), 2);
+        indexService.forceMergeDeletes(IndexModel4Test.class);
         Assert.assertEquals(indexService.status(IndexModel4Test.class).getTotal(), 2);
     }
 
@@ -132,5 +197,1011 @@ public class IndexServiceTest {
         matched = indexService.search("type", "Article", IndexModel4Enum.class, 1, 10);
         Assert.assertEquals(matched.getContent().size(), 1);
     }
-}
 
+    @Test
+    public void t5_testSharedWriterLifecycle() throws InterruptedException {
+        String lifecycleDir = newFolder("./index_dir_lifecycle");
+        IndexService service = open(new IndexService(lifecycleDir));
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t * 25;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 25; i++) {
+                    IndexModel4Test m = new IndexModel4Test();
+                    m.setId(String.valueOf(offset + i));
+                    m.setTitle("Concurrent " + (offset + i));
+                    m.setContent("Written by a shared writer");
+                    service.createIndex(m);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // visible before commit
+        Assert.assertEquals(service.getTotals(IndexModel4Test.class), 100);
+        service.commit();
+        service.close();
+
+        // durable after close
+        IndexService reopened = open(new IndexService(lifecycleDir));
+        Assert.assertEquals(reopened.getTotals(IndexModel4Test.class), 100);
+    }
+
+    @Test
+    public void t6_testBackgroundRefresh() throws InterruptedException {
+        String refreshDir = newFolder("./index_dir_refresh");
+        IndexService service = open(new IndexService(refreshDir));
+        service.setRefreshInterval(50);
+        Assert.assertEquals(service.getTotals(IndexModel4Test.class), 0);
+
+        IndexModel4Test m = new IndexModel4Test();
+        m.setId("refresh1");
+        m.setTitle("Refreshed in background");
+        service.createIndex(m);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (service.getTotals(IndexModel4Test.class) == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(service.getTotals(IndexModel4Test.class), 1);
+
+        m.setId("refresh2");
+        service.createIndex(m);
+        service.refresh(IndexModel4Test.class);
+        Assert.assertEquals(service.getTotals(IndexModel4Test.class), 2);
+    }
+
+    @Test(expected = NoKeyDefinedException.class)
+    public void t7_testUpdateWithoutKey() throws NoKeyDefinedException, IllegalAccessException {
+        indexService.updateIndex(models2.get(0));
+    }
+
+    @Test
+    public void t8_testNumberMaterialization() {
+        IndexModel4Number m = new IndexModel4Number();
+        m.setId("n1");
+        m.setTitle("Numbers");
+        m.setViews(1234567890123L);
+        m.setRank(7);
+        m.setRating(4.5f);
+        m.setPrice(19.99);
+        indexService.createIndex(m);
+
+        SearchResult<IndexModel4Number> matched = indexService.search("id", "n1", IndexModel4Number.class, 1, 10);
+        Assert.assertEquals(matched.getContent().size(), 1);
+        IndexModel4Number found = matched.getContent().get(0);
+        Assert.assertEquals(found.getViews(), 1234567890123L);
+        Assert.assertEquals(found.getRank(), Integer.valueOf(7));
+        Assert.assertEquals(found.getRating(), 4.5f, 0);
+        Assert.assertEquals(found.getPrice(), 19.99, 0);
+    }
+
+    @Test
+    public void t9_testBulkIndex() {
+        String bulkDir = newFolder("./index_dir_bulk");
+        IndexService service = open(new IndexService(bulkDir));
+        service.setBatchSize(64);
+        service.setRamBufferSizeMB(32);
+
+        long indexed = service.bulkIndex(IntStream.range(0, 1000).mapToObj(i -> {
+            if (i % 2 == 0) {
+                IndexModel4Test m = new IndexModel4Test();
+                m.setId("bulk" + i);
+                m.setTitle("Bulk " + i);
+                return m;
+            }
+            IndexModel4Number n = new IndexModel4Number();
+            n.setId("bulk" + i);
+            n.setViews(i);
+            return n;
+        }));
+        Assert.assertEquals(indexed, 1000);
+        Assert.assertEquals(service.getTotals(IndexModel4Test.class), 500);
+        Assert.assertEquals(service.getTotals(IndexModel4Number.class), 500);
+        service.close();
+
+        // bulk indexing commits when finished
+        IndexService reopened = open(new IndexService(bulkDir));
+        Assert.assertEquals(reopened.getTotals(), 1000);
+    }
+
+    @Test
+    public void t10_testAsyncIndex() throws InterruptedException, ExecutionException {
+        String asyncDir = newFolder("./index_dir_async");
+        IndexService service = open(new IndexService(asyncDir));
+        service.setAsyncQueueCapacity(16);
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            IndexModel4Test m = new IndexModel4Test();
+            m.setId("async" + i);
+            m.setTitle("Async " + i);
+            futures.add(service.createIndexAsync(m));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+        Assert.assertEquals(service.getTotals(IndexModel4Test.class), 100);
+
+        IndexModel4Test updated = new IndexModel4Test();
+        updated.setId("async0");
+        updated.setTitle("Updated asynchronously");
+        service.updateIndexAsync(updated, AckMode.COMMITTED).get();
+        service.deleteIndexAsync(IndexModel4Test.class, "async1").get();
+        Assert.assertEquals(service.getTotals(IndexModel4Test.class), 99);
+        Assert.assertEquals(service.search("title", "asynchronously", IndexModel4Test.class, 1, 10).getContent().size(), 1);
+
+        try {
+            service.updateIndexAsync(models2.get(0)).get();
+            Assert.fail();
+        } catch (ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof NoKeyDefinedException);
+        }
+    }
+
+    @Test
+    public void t11_testUpsert() throws NoKeyDefinedException {
+        String upsertDir = newFolder("./index_dir_upsert");
+        IndexService service = open(new IndexService(upsertDir));
+
+        List<IndexModel4Test> items = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            IndexModel4Test m = new IndexModel4Test();
+            m.setId("upsert" + i);
+            m.setTitle("Original " + i);
+            items.add(m);
+        }
+        service.upsertAll(items);
+        Assert.assertEquals(service.getTotals(IndexModel4Test.class), 10);
+
+        for (IndexModel4Test m : items) {
+            m.setTitle("Replaced");
+        }
+        service.upsertAll(items);
+        IndexStatus status = service.status(IndexModel4Test.class);
+        Assert.assertEquals(status.getNum(), 10);
+        Assert.assertEquals(service.search("title", "replaced", IndexModel4Test.class, 1, 20).getContent().size(), 10);
+
+        service.forceMergeDeletes(IndexModel4Test.class);
+        Assert.assertEquals(service.status(IndexModel4Test.class).getNumDeleted(), 0);
+    }
+
+    @Test
+    public void t12_testCursorPaging() {
+        String cursorDir = newFolder("./index_dir_cursor");
+        IndexService service = open(new IndexService(cursorDir));
+        List<IndexModel4Test> items = new ArrayList<>();
+        for (int i = 0; i < 95; i++) {
+            IndexModel4Test m = new IndexModel4Test();
+            m.setId("cursor" + i);
+            m.setTitle("Paging item " + i);
+            items.add(m);
+        }
+        service.bulkIndex(items);
+
+        Set<String> ids = new HashSet<>();
+        SearchCursor cursor = null;
+        int pages = 0;
+        do {
+            SearchResult<IndexModel4Test> result = service.search("paging", IndexModel4Test.class, cursor, 10);
+            pages++;
+            Assert.assertEquals(result.getPage(), pages);
+            for (IndexModel4Test m : result.getContent()) {
+                Assert.assertTrue(ids.add(m.getId()));
+            }
+            // cursors survive a round trip through clients
+            cursor = result.getCursor() == null ? null : SearchCursor.decode(result.getCursor().encode());
+            Assert.assertEquals(result.hasMore(), cursor != null);
+        } while (cursor != null);
+
+        Assert.assertEquals(pages, 10);
+        Assert.assertEquals(ids.size(), 95);
+    }
+
+    @Test
+    public void t13_testHighlight() {
+        String highlightDir = newFolder("./index_dir_highlight");
+        IndexService service = open(new IndexService(highlightDir));
+        service.createIndex(models.toArray());
+
+        SearchResult<IndexModel4Test> matched = service.search("world", IndexModel4Test.class, 1, 10);
+        Assert.assertEquals(matched.getContent().get(0).getTitle(), "Hello World");
+
+        matched = service.search("world", IndexModel4Test.class, null, 1, 10, new SearchOptions().highlight("title"));
+        Assert.assertEquals(matched.getContent().get(0).getTitle(), "Hello <B class='highlight'>World</B>");
+        Assert.assertEquals(matched.getContent().get(0).getContent(), "This is a testing data.");
+
+        // content is highlighted from offsets indexed by @Indexable(highlight = true)
+        matched = service.search("testing", IndexModel4Test.class, null, 1, 10, new SearchOptions().highlight("title", "content"));
+        Assert.assertEquals(matched.getContent().get(0).getTitle(), "Hello World");
+        Assert.assertEquals(matched.getContent().get(0).getContent(), "This is a <B class='highlight'>testing</B> data.");
+    }
+
+    @Test
+    public void t14_testTypeAwareQuery() {
+        String queryDir = newFolder("./index_dir_query");
+        IndexService service = open(new IndexService(queryDir));
+        for (int i = 1; i <= 10; i++) {
+            IndexModel4Number m = new IndexModel4Number();
+            m.setId("q" + i);
+            m.setTitle("Number " + i);
+            m.setViews(i * 10);
+            m.setRank(i);
+            m.setPrice(i + 0.5);
+            service.createIndex(m);
+        }
+
+        Assert.assertEquals(service.search("views:[20 TO 40]", IndexModel4Number.class, 1, 20).getContent().size(), 3);
+        Assert.assertEquals(service.search("views:{20 TO 40]", IndexModel4Number.class, 1, 20).getContent().size(), 2);
+        Assert.assertEquals(service.search("price:[* TO 3.5]", IndexModel4Number.class, 1, 20).getContent().size(), 3);
+        Assert.assertEquals(service.search("rank:3", IndexModel4Number.class, 1, 20).getContent().size(), 1);
+        Assert.assertEquals(service.search("views", "20", IndexModel4Number.class, 1, 20).getContent().size(), 1);
+        // bare numbers match numeric fields as well as text
+        Assert.assertEquals(service.search("70", IndexModel4Number.class, 1, 20).getContent().get(0).getRank(), Integer.valueOf(7));
+        // exact fields match the whole phrase instead of failing for missing positions
+        Assert.assertEquals(service.search("id:\"q5\"", IndexModel4Number.class, 1, 20).getContent().size(), 1);
+        Assert.assertNotNull(service.search("\"number 5\"", IndexModel4Number.class, 1, 20));
+    }
+
+    @Test
+    public void t15_testRangeAndSort() {
+        String sortDir = newFolder("./index_dir_sort");
+        IndexService service = open(new IndexService(sortDir));
+        for (int i = 1; i <= 10; i++) {
+            IndexModel4Number m = new IndexModel4Number();
+            m.setId("s" + i);
+            m.setTitle("Sorted " + i);
+            m.setViews(100 - i);
+            m.setRank(i);
+            // fractions would collide if doc values were truncated
+            m.setRating(1 + (i % 5) / 10f);
+            m.setPrice(i / 10.0);
+            service.createIndex(m);
+        }
+
+        SearchCriteria criteria = new SearchCriteria().range("price", 0.25, 0.75).sortBy("price", true);
+        List<IndexModel4Number> items = service.search("sorted", IndexModel4Number.class, null, criteria, 1, 20).getContent();
+        Assert.assertEquals(items.size(), 5);
+        Assert.assertEquals(items.get(0).getPrice(), 0.7, 0);
+        Assert.assertEquals(items.get(4).getPrice(), 0.3, 0);
+
+        // fractional bounds of int fields are rounded inwards, exclusivity only applies to integral bounds
+        Assert.assertEquals(service.search(null, IndexModel4Number.class, null,
+            new SearchCriteria().range("views", 90.5, 92.5), 1, 20).getTotalHits(), 2);
+        Assert.assertEquals(service.search(null, IndexModel4Number.class, null,
+            new SearchCriteria().range("rank", 2.5, false, 4.5, false), 1, 20).getTotalHits(), 2);
+        Assert.assertEquals(service.search(null, IndexModel4Number.class, null,
+            new SearchCriteria().range("rank", 2, false, 4, false), 1, 20).getTotalHits(), 1);
+
+        items = service.search(null, IndexModel4Number.class, null,
+            new SearchCriteria().sortBy("rating").sortBy("views"), 1, 3).getContent();
+        Assert.assertEquals(items.get(0).getRank(), Integer.valueOf(10));
+        Assert.assertEquals(items.get(1).getRank(), Integer.valueOf(5));
+        Assert.assertEquals(items.get(2).getRank(), Integer.valueOf(6));
+
+        // cursors carry the sort values
+        criteria = new SearchCriteria().range("views", 90, false, null, true).sortBy("views");
+        SearchResult<IndexModel4Number> result = service.search(null, IndexModel4Number.class, null, criteria, (SearchCursor) null, 4);
+        Assert.assertEquals(result.getContent().get(0).getViews(), 91);
+        result = service.search(null, IndexModel4Number.class, null, criteria, SearchCursor.decode(result.getCursor().encode()), 4);
+        Assert.assertEquals(result.getContent().size(), 4);
+        Assert.assertEquals(result.getContent().get(0).getViews(), 95);
+        result = service.search(null, IndexModel4Number.class, null, criteria, result.getCursor(), 4);
+        Assert.assertEquals(result.getContent().size(), 1);
+        Assert.assertNull(result.getCursor());
+    }
+
+    @Test
+    public void t16_testFilters() {
+        String filterDir = newFolder("./index_dir_filter");
+        IndexService service = open(new IndexService(filterDir));
+        LRUQueryCache queryCache = new LRUQueryCache(100, 1024 * 1024, leaf -> true);
+        service.setQueryCache(queryCache);
+        service.setQueryCachingPolicy(QueryCachingPolicy.ALWAYS_CACHE);
+        for (int i = 1; i <= 10; i++) {
+            IndexModel4Number m = new IndexModel4Number();
+            m.setId("f" + i);
+            m.setTitle("Filtered " + i);
+            m.setRank(i);
+            service.createIndex(m);
+        }
+
+        Map<String, Object> andCondition = new HashMap<>();
+        andCondition.put("rank", Arrays.asList(2, 3, 4));
+        Assert.assertEquals(service.search("filtered", IndexModel4Number.class, andCondition, 1, 20).getContent().size(), 3);
+        andCondition.put("id", new String[] { "f3", "f4", "f5" });
+        Assert.assertEquals(service.search("filtered", IndexModel4Number.class, andCondition, 1, 20).getContent().size(), 2);
+
+        SearchCriteria criteria = new SearchCriteria().exclude("id", "f1", "f2").filter("rank", 1, 2, 3);
+        List<IndexModel4Number> items = service.search(null, IndexModel4Number.class, null, criteria, 1, 20).getContent();
+        Assert.assertEquals(items.size(), 1);
+        Assert.assertEquals(items.get(0).getId(), "f3");
+
+        // repeated filters are served by the shared query cache
+        service.search(null, IndexModel4Number.class, null, criteria, 1, 20);
+        Assert.assertTrue(queryCache.getCacheCount() > 0);
+        Assert.assertTrue(queryCache.getHitCount() > 0);
+    }
+
+    @Test
+    public void t17_testResultCache() {
+        String cacheDir = newFolder("./index_dir_cache");
+        IndexService service = open(new IndexService(cacheDir));
+        service.setResultCacheSize(2);
+        for (int i = 1; i <= 3; i++) {
+            IndexModel4Number m = new IndexModel4Number();
+            m.setId("c" + i);
+            m.setTitle("Cached " + i);
+            service.createIndex(m);
+        }
+
+        SearchResult<IndexModel4Number> first = service.search("cached", IndexModel4Number.class, 1, 10);
+        Assert.assertSame(service.search("cached", IndexModel4Number.class, 1, 10), first);
+        Assert.assertEquals(service.getResultCacheStats().getHitCount(), 1);
+
+        // a visible write drops the results of its catalog
+        IndexModel4Number m = new IndexModel4Number();
+        m.setId("c4");
+        m.setTitle("Cached 4");
+        service.createIndex(m);
+        Assert.assertEquals(service.search("cached", IndexModel4Number.class, 1, 10).getContent().size(), 4);
+        Assert.assertEquals(service.getResultCacheStats().getInvalidationCount(), 1);
+
+        service.search("cached", IndexModel4Number.class, 1, 1);
+        service.search("cached", IndexModel4Number.class, 2, 1);
+        Assert.assertEquals(service.getResultCacheStats().getSize(), 2);
+        Assert.assertEquals(service.getResultCacheStats().getEvictionCount(), 1);
+    }
+
+    @Test
+    public void t18_testMultiCatalogSearch() {
+        String multiDir = newFolder("./index_dir_multi");
+        IndexService service = open(new IndexService(multiDir));
+        for (int i = 1; i <= 3; i++) {
+            IndexModel4Number number = new IndexModel4Number();
+            number.setId("m" + i);
+            number.setTitle("Global " + i);
+            IndexModel4Test test = new IndexModel4Test();
+            test.setTitle("Global title");
+            test.setContent("Global content " + i);
+            service.createIndex(number, test);
+        }
+
+        SearchResult<Object> result = service.search("global", 1, 4, IndexModel4Number.class, IndexModel4Test.class);
+        Assert.assertEquals(result.getContent().size(), 4);
+        Assert.assertTrue(result.hasMore());
+        result = service.search("global", 2, 4, IndexModel4Number.class, IndexModel4Test.class);
+        Assert.assertEquals(result.getContent().size(), 2);
+        Set<Class<?>> classes = new HashSet<>();
+        for (Object item : service.search("global", 1, 10, IndexModel4Number.class, IndexModel4Test.class).getContent()) {
+            classes.add(item.getClass());
+        }
+        Assert.assertEquals(classes.size(), 2);
+        Assert.assertEquals(service.getTotals(), 6);
+    }
+
+    @Test
+    public void t19_testSlicedSearch() {
+        String sliceDir = newFolder("./index_dir_slice");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            IndexService service = open(new IndexService(sliceDir));
+            AtomicInteger maxSlices = new AtomicInteger();
+            service.setSearchExecutor(executor);
+            service.setMaxSlicesPerQuery(2);
+            service.setSlicePolicy((leaves, max) -> {
+                IndexSearcher.LeafSlice[] slices = SlicePolicy.BALANCED.slice(leaves, max);
+                maxSlices.accumulateAndGet(slices.length, Math::max);
+                return slices;
+            });
+            for (int i = 1; i <= 6; i++) {
+                IndexModel4Number m = new IndexModel4Number();
+                m.setId("p" + i);
+                m.setTitle("Sliced " + i);
+                m.setRank(i);
+                service.createIndex(m);
+                // each refresh flushes a new segment
+                Assert.assertEquals(service.search("sliced", IndexModel4Number.class, 1, 10).getContent().size(), i);
+            }
+
+            SearchCriteria criteria = new SearchCriteria().sortBy("rank", true);
+            Assert.assertEquals(service.search(null, IndexModel4Number.class, null, criteria, 1, 3).getContent().get(0).getRank(),
+                Integer.valueOf(6));
+            Assert.assertEquals(maxSlices.get(), 2);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void t20_testDirectoryFactory() {
+        String ramDir = newFolder("./index_dir_ram");
+        IndexService service = open(new IndexService(ramDir, DirectoryFactory.ram()));
+        IndexModel4Number m = new IndexModel4Number();
+        m.setId("d1");
+        m.setTitle("In memory");
+        service.createIndex(m);
+        Assert.assertEquals(service.search("memory", IndexModel4Number.class, 1, 10).getContent().size(), 1);
+        Assert.assertEquals(service.getTotals(), 1);
+        service.close();
+        Assert.assertFalse(IOHelper.isDirectoryExisted(ramDir));
+
+        String mmapDir = newFolder("./index_dir_mmap");
+        service = open(new IndexService(mmapDir, DirectoryFactory.nrtCaching(DirectoryFactory.mmap(true))));
+        service.createIndex(m);
+        Assert.assertEquals(service.search("memory", IndexModel4Number.class, 1, 10).getContent().size(), 1);
+        service.close();
+        service = open(new IndexService(mmapDir, DirectoryFactory.mmap(false)));
+        Assert.assertEquals(service.getTotals(IndexModel4Number.class), 1);
+    }
+
+    @Test
+    public void t21_testMetrics() {
+        String metricsDir = newFolder("./index_dir_metrics");
+        IndexService service = open(new IndexService(metricsDir));
+        Map<String, Integer> events = new ConcurrentHashMap<>();
+        service.setMetricsListener(new MetricsListener() {
+            @Override
+            public void onWrite(String catalog, Operation operation, int count, long nanos) {
+                events.merge(operation.name(), count, Integer::sum);
+            }
+
+            @Override
+            public void onCommit(String catalog, long nanos) {
+                events.merge("COMMIT", 1, Integer::sum);
+            }
+
+            @Override
+            public void onRefresh(String catalog, long nanos) {
+                events.merge("REFRESH", 1, Integer::sum);
+            }
+
+            @Override
+            public void onSearchPhase(String catalog, Phase phase, long nanos) {
+                events.merge(phase.name(), 1, Integer::sum);
+            }
+
+            @Override
+            public void onSearch(String catalog, long totalHits, int returned, long nanos) {
+                events.merge("HITS", (int) totalHits, Integer::sum);
+            }
+
+            @Override
+            public void onError(String catalog, String operation, Throwable error) {
+                events.merge("ERROR", 1, Integer::sum);
+            }
+        });
+        for (int i = 1; i <= 3; i++) {
+            IndexModel4Number m = new IndexModel4Number();
+            m.setId("x" + i);
+            m.setTitle("Measured " + i);
+            service.createIndex(m);
+        }
+        service.search("measured", IndexModel4Number.class, null, 1, 2, new SearchOptions().highlight("title"));
+        service.search("measured AND (", IndexModel4Number.class, 1, 2);
+        service.commit();
+
+        Assert.assertEquals(events.get("INDEX"), Integer.valueOf(3));
+        Assert.assertEquals(events.get("HITS"), Integer.valueOf(3));
+        Assert.assertEquals(events.get("ERROR"), Integer.valueOf(1));
+        Assert.assertEquals(events.get("COMMIT"), Integer.valueOf(1));
+        Assert.assertTrue(events.containsKey("REFRESH"));
+        Assert.assertTrue(events.containsKey("PARSE") && events.containsKey("SEARCH")
+            && events.containsKey("MATERIALIZE") && events.containsKey("HIGHLIGHT"));
+
+        IndexStatus status = service.status(IndexModel4Number.class);
+        Assert.assertTrue(status.getSegmentCount() > 0);
+        Assert.assertTrue(status.getRamBytesUsed() >= 0);
+    }
+
+    @Test
+    public void t22_testStream() throws NoKeyDefinedException {
+        String streamDir = newFolder("./index_dir_stream");
+        IndexService service = open(new IndexService(streamDir));
+        for (int i = 1; i <= 25; i++) {
+            IndexModel4Number m = new IndexModel4Number();
+            m.setId("e" + i);
+            m.setTitle("Exported " + i);
+            m.setRank(i);
+            service.createIndex(m);
+            if (i % 10 == 0) {
+                // items in several segments
+                service.refresh(IndexModel4Number.class);
+            }
+        }
+        service.deleteIndex(IndexModel4Number.class, "e1");
+
+        try (Stream<IndexModel4Number> items = service.stream("exported", IndexModel4Number.class)) {
+            Assert.assertEquals(items.count(), 24);
+        }
+        try (Stream<IndexModel4Number> items = service.stream(null, IndexModel4Number.class, null,
+            new SearchCriteria().range("rank", 20, null))) {
+            Assert.assertEquals(items.mapToInt(IndexModel4Number::getRank).sum(), 20 + 21 + 22 + 23 + 24 + 25);
+        }
+
+        // the stream reads the searcher of the time it is created
+        Stream<IndexModel4Number> items = service.stream("exported", IndexModel4Number.class);
+        IndexModel4Number m = new IndexModel4Number();
+        m.setId("e26");
+        m.setTitle("Exported 26");
+        service.createIndex(m);
+        Assert.assertEquals(service.search("exported", IndexModel4Number.class, 1, 30).getContent().size(), 25);
+        Assert.assertEquals(items.limit(30).count(), 24);
+        items.close();
+    }
+
+    @Test
+    public void t23_testCountAndExists() throws NoKeyDefinedException {
+        String countDir = newFolder("./index_dir_count");
+        IndexService service = open(new IndexService(countDir));
+        for (int i = 1; i <= 12; i++) {
+            IndexModel4Number m = new IndexModel4Number();
+            m.setId("n" + i);
+            m.setTitle(i % 2 == 0 ? "Even " + i : "Odd " + i);
+            m.setRank(i);
+            service.createIndex(m);
+            if (i % 5 == 0) {
+                service.refresh(IndexModel4Number.class);
+            }
+        }
+        service.deleteIndex(IndexModel4Number.class, "n2");
+
+        Assert.assertEquals(service.count(null, IndexModel4Number.class), 11);
+        Assert.assertEquals(service.count("even", IndexModel4Number.class), 5);
+        Assert.assertEquals(service.count("odd", IndexModel4Number.class, null, new SearchCriteria().range("rank", 6, null)), 3);
+        Assert.assertTrue(service.exists("odd", IndexModel4Number.class));
+        Assert.assertTrue(service.exists("even", IndexModel4Number.class, null, new SearchCriteria().filter("rank", 12)));
+        Assert.assertFalse(service.exists("even", IndexModel4Number.class, null, new SearchCriteria().filter("rank", 2)));
+        Assert.assertFalse(service.exists("missing", IndexModel4Number.class));
+
+        SearchResult<IndexModel4Number> result = service.search("even", IndexModel4Number.class, 1, 2);
+        Assert.assertEquals(result.getTotalHits(), 5);
+        Assert.assertEquals(service.search("even", IndexModel4Number.class, result.getCursor(), 2).getTotalHits(), 5);
+    }
+
+    @Test
+    public void t24_testSnapshotAndRestore() throws NoKeyDefinedException {
+        String snapshotDir = newFolder("./index_dir_snapshot");
+        String backupDir = newFolder("./index_dir_backup");
+        IndexService service = open(new IndexService(snapshotDir));
+        service.setSnapshotHardLinks(true);
+        for (int i = 1; i <= 10; i++) {
+            IndexModel4Number m = new IndexModel4Number();
+            m.setId("n" + i);
+            m.setTitle("Item " + i);
+            m.setRank(i);
+            service.createIndex(m);
+        }
+
+        long first = service.snapshot(IndexModel4Number.class, backupDir);
+        Assert.assertTrue(first > 0);
+        // nothing changed, the same commit is backed up again
+        Assert.assertEquals(service.snapshot(IndexModel4Number.class, backupDir), first);
+
+        for (int i = 11; i <= 15; i++) {
+            IndexModel4Number m = new IndexModel4Number();
+            m.setId("n" + i);
+            m.setTitle("Item " + i);
+            m.setRank(i);
+            service.createIndex(m);
+        }
+        Map<String, Long> generations = service.snapshotAll(backupDir);
+        Assert.assertTrue(generations.get(IndexModel4Number.class.getName()) > first);
+
+        service.deleteIndex(IndexModel4Number.class, "n1");
+        service.deleteIndex(IndexModel4Number.class, "n2");
+        Assert.assertEquals(service.count(null, IndexModel4Number.class), 13);
+        Assert.assertTrue(service.restore(IndexModel4Number.class, backupDir));
+        Assert.assertEquals(service.count(null, IndexModel4Number.class), 15);
+        Assert.assertEquals(service.search("item", IndexModel4Number.class, 1, 20).getTotalHits(), 15);
+        Assert.assertFalse(service.restore(IndexModel4Enum.class, backupDir));
+        service.close();
+
+        IndexService restored = open(new IndexService("./index_dir_restored", DirectoryFactory.ram()));
+        Assert.assertEquals(restored.restoreAll(backupDir), 1);
+        Assert.assertEquals(restored.count("item", IndexModel4Number.class), 15);
+    }
+
+    @Test
+    public void t25_testShardedCatalog() throws NoKeyDefinedException, IllegalAccessException {
+        String shardDir = newFolder("./index_dir_shard");
+        IndexService service = open(new IndexService(shardDir));
+        List<IndexModel4Shard> models = new ArrayList<>();
+        for (int i = 1; i <= 30; i++) {
+            IndexModel4Shard m = new IndexModel4Shard();
+            m.setId("s" + i);
+            m.setTitle("Item " + i);
+            m.setRank(i);
+            models.add(m);
+        }
+        service.createIndex(models.subList(0, 10).toArray());
+        service.bulkIndex(models.subList(10, 30));
+        Assert.assertEquals(service.getShardCount(IndexModel4Shard.class), 3);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(IOHelper.isDirectoryExisted(shardDir + "/" + IndexModel4Shard.class.getName() + "-" + i));
+        }
+        Assert.assertEquals(service.count("item", IndexModel4Shard.class), 30);
+
+        // updates and deletes go to the shard owning the key
+        IndexModel4Shard updated = models.get(4);
+        updated.setTitle("Item changed");
+        service.updateIndex(updated);
+        Assert.assertEquals(service.deleteIndex(IndexModel4Shard.class, "s7"), 1);
+        Assert.assertEquals(service.count(null, IndexModel4Shard.class), 29);
+        Assert.assertEquals(service.getTotals(IndexModel4Shard.class), 29);
+        Assert.assertEquals(service.status(IndexModel4Shard.class).getNum(), 29);
+        Assert.assertTrue(service.exists("changed", IndexModel4Shard.class));
+
+        // hits of all shards are merged, cursors page through them without gaps or duplicates
+        Set<String> ids = new HashSet<>();
+        SearchResult<IndexModel4Shard> page = service.search("item", IndexModel4Shard.class, (SearchCursor) null, 4);
+        while (true) {
+            Assert.assertEquals(page.getTotalHits(), 29);
+            for (IndexModel4Shard m : page.getContent()) {
+                Assert.assertTrue(ids.add(m.getId()));
+            }
+            if (page.getCursor() == null) {
+                break;
+            }
+            page = service.search("item", IndexModel4Shard.class, page.getCursor(), 4);
+        }
+        Assert.assertEquals(ids.size(), 29);
+
+        List<Integer> ranks = new ArrayList<>();
+        SearchCriteria byRank = new SearchCriteria().sortBy("rank");
+        SearchResult<IndexModel4Shard> sorted = service.search("item", IndexModel4Shard.class, null, byRank, null, 7);
+        while (sorted != null) {
+            for (IndexModel4Shard m : sorted.getContent()) {
+                ranks.add(m.getRank());
+            }
+            sorted = sorted.getCursor() == null ? null
+                : service.search("item", IndexModel4Shard.class, null, byRank, sorted.getCursor(), 7);
+        }
+        Assert.assertEquals(ranks.size(), 29);
+        for (int i = 1; i < ranks.size(); i++) {
+            Assert.assertTrue(ranks.get(i - 1) < ranks.get(i));
+        }
+        Assert.assertEquals(service.search("item", IndexModel4Shard.class, 3, 10).getContent().size(), 9);
+        Assert.assertEquals(service.search("item", 1, 50, IndexModel4Shard.class, IndexModel4Number.class).getTotalHits(), 29);
+        try (Stream<IndexModel4Shard> all = service.stream(null, IndexModel4Shard.class)) {
+            Assert.assertEquals(all.count(), 29);
+        }
+
+        try {
+            service.setShardCount(IndexModel4Shard.class, 2);
+            Assert.fail();
+        } catch (IllegalStateException ex) {
+            // the shards can not change once opened
+        }
+        service.setShardCount(IndexModel4Enum.class, 2);
+        Assert.assertEquals(service.getShardCount(IndexModel4Enum.class), 2);
+    }
+
+    @Test
+    public void t26_testReplication() throws NoKeyDefinedException, IllegalAccessException {
+        String leaderDir = newFolder("./index_dir_leader");
+        String followerDir = newFolder("./index_dir_follower");
+        String sharedDir = newFolder("./index_dir_shared");
+        // leader and follower share the in-process transport
+        ReplicationTransport transport = ReplicationTransport.inProcess();
+        IndexService leader = open(new IndexService(leaderDir));
+        leader.publish(transport);
+        IndexService follower = open(new IndexService(followerDir));
+        follower.follow(transport);
+        for (int i = 1; i <= 10; i++) {
+            IndexModel4Number m = new IndexModel4Number();
+            m.setId("r" + i);
+            m.setTitle("Replicated " + i);
+            m.setRank(i);
+            leader.createIndex(m);
+        }
+        Assert.assertEquals(follower.count(null, IndexModel4Number.class), 0);
+        leader.commit();
+        leader.awaitPublished();
+        Assert.assertEquals(follower.replicate(), 1);
+        Assert.assertEquals(follower.count("replicated", IndexModel4Number.class), 10);
+        Assert.assertEquals(follower.replicate(), 0);
+
+        for (int i = 11; i <= 15; i++) {
+            IndexModel4Number m = new IndexModel4Number();
+            m.setId("r" + i);
+            m.setTitle("Replicated " + i);
+            m.setRank(i);
+            leader.createIndex(m);
+        }
+        leader.deleteIndex(IndexModel4Number.class, "r1");
+        leader.commit();
+        leader.awaitPublished();
+        Assert.assertEquals(follower.count(null, IndexModel4Number.class), 10);
+        Assert.assertEquals(follower.replicate(), 1);
+        Assert.assertEquals(follower.count(null, IndexModel4Number.class), 14);
+        Assert.assertEquals(follower.search("replicated", IndexModel4Number.class, null,
+            new SearchCriteria().sortBy("rank", true), 1, 1).getContent().get(0).getId(), "r15");
+        try {
+            follower.deleteIndex(IndexModel4Number.class, "r2");
+            Assert.fail();
+        } catch (IllegalStateException ex) {
+            // followers are read-only
+        }
+        try {
+            follower.createIndex(new IndexModel4Number());
+            Assert.fail();
+        } catch (IllegalStateException ex) {
+            // writes are rejected instead of dropped
+        }
+        try {
+            follower.bulkIndex(Arrays.asList(new IndexModel4Number()));
+            Assert.fail();
+        } catch (IllegalStateException ex) {
+            // writes are rejected instead of dropped
+        }
+        Assert.assertEquals(follower.count(null, IndexModel4Number.class), 14);
+        follower.close();
+
+        // a follower on the shared folder catches up from the commit published last
+        leader.publish(ReplicationTransport.files(sharedDir));
+        IndexService fileFollower = open(new IndexService(followerDir + "_files", DirectoryFactory.ram()));
+        fileFollower.follow(ReplicationTransport.files(sharedDir));
+        Assert.assertEquals(fileFollower.replicate(), 1);
+        Assert.assertEquals(fileFollower.count(null, IndexModel4Number.class), 14);
+        leader.deleteIndex(IndexModel4Number.class, "r2");
+        leader.commit();
+        leader.awaitPublished();
+        Assert.assertEquals(fileFollower.replicate(), 1);
+        Assert.assertEquals(fileFollower.count(null, IndexModel4Number.class), 13);
+        fileFollower.close();
+        leader.close();
+
+        // a restarted follower opens the commit it replicated last
+        follower = open(new IndexService(followerDir));
+        follower.follow(transport);
+        Assert.assertEquals(follower.count(null, IndexModel4Number.class), 14);
+    }
+
+    @Test
+    public void t27_testWarmUp() throws NoKeyDefinedException {
+        String warmUpDir = newFolder("./index_dir_warmup");
+        IndexService service = open(new IndexService(warmUpDir));
+        for (int i = 1; i <= 20; i++) {
+            IndexModel4Number m = new IndexModel4Number();
+            m.setId("w" + i);
+            m.setTitle("Item " + i);
+            m.setRank(i);
+            service.createIndex(m);
+            if (i % 5 == 0) {
+                service.commit();
+            }
+        }
+        // merged segments go through the warmer
+        service.deleteIndex(IndexModel4Number.class, "w1");
+        service.forceMergeDeletes(IndexModel4Number.class);
+        service.close();
+
+        IndexService restarted = open(new IndexService(warmUpDir));
+        restarted.setWarmUpTerms(true);
+        restarted.setResultCacheSize(10);
+        restarted.setWarmUpQueries(IndexModel4Number.class, "item");
+        Assert.assertEquals(restarted.getWarmUpQueries(IndexModel4Number.class).size(), 1);
+        Assert.assertEquals(restarted.warmUp(), 1);
+        Assert.assertEquals(restarted.getResultCacheStats().getSize(), 1);
+        Assert.assertEquals(restarted.search("item", IndexModel4Number.class, 1, 10).getTotalHits(), 19);
+        Assert.assertEquals(restarted.getResultCacheStats().getHitCount(), 1);
+        restarted.setWarmUpQueries(IndexModel4Number.class);
+        Assert.assertTrue(restarted.getWarmUpQueries(IndexModel4Number.class).isEmpty());
+    }
+
+    @Test
+    public void t28_testProjection() throws NoKeyDefinedException {
+        String projectionDir = newFolder("./index_dir_projection");
+        IndexService service = open(new IndexService(projectionDir));
+        service.setResultCacheSize(10);
+        for (int i = 1; i <= 5; i++) {
+            IndexModel4Projection m = new IndexModel4Projection();
+            m.setId("p" + i);
+            m.setTitle("Title " + i);
+            m.setContent("Content " + i);
+            m.setBody("hidden body " + i);
+            m.setRank(i);
+            service.createIndex(m);
+        }
+
+        // a field not stored is searched but not returned
+        SearchResult<IndexModel4Projection> all = service.search("hidden", IndexModel4Projection.class, 1, 10);
+        Assert.assertEquals(all.getTotalHits(), 5);
+        IndexModel4Projection item = all.getContent().get(0);
+        Assert.assertNotNull(item.getContent());
+        Assert.assertNotNull(item.getRank());
+        Assert.assertNull(item.getBody());
+
+        SearchResult<IndexModel4Projection> titles = service.search("hidden", IndexModel4Projection.class, null,
+            1, 10, new SearchOptions().fields("title", "body"));
+        item = titles.getContent().get(0);
+        Assert.assertTrue(item.getTitle().startsWith("Title"));
+        Assert.assertNull(item.getId());
+        Assert.assertNull(item.getContent());
+        Assert.assertNull(item.getRank());
+
+        // projections are cached apart
+        SearchResult<IndexModel4Projection> summaries = service.search("hidden", IndexModel4Projection.class, null,
+            1, 10, new SearchOptions().fields(IndexModel4Projection.Summary.class));
+        item = summaries.getContent().get(0);
+        Assert.assertNotNull(item.getId());
+        Assert.assertNotNull(item.getTitle());
+        Assert.assertNull(item.getContent());
+
+        // highlighted fields are loaded as well
+        SearchResult<IndexModel4Projection> highlighted = service.search("content", IndexModel4Projection.class, null,
+            1, 10, new SearchOptions().fields("id").highlight("content"));
+        item = highlighted.getContent().get(0);
+        Assert.assertNotNull(item.getId());
+        Assert.assertTrue(item.getContent().contains("<B class='highlight'>"));
+        Assert.assertNull(item.getTitle());
+    }
+
+    @Test
+    public void t29_testAsyncIndexOrder() throws InterruptedException, ExecutionException {
+        String orderDir = newFolder("./index_dir_async_order");
+        IndexService service = open(new IndexService(orderDir));
+        service.setAsyncIndexerThreads(4);
+
+        // operations on the same key must run in the order they are queued
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int round = 0; round < 30; round++) {
+            for (int i = 0; i < 20; i++) {
+                IndexModel4Number created = new IndexModel4Number();
+                created.setId("o" + i);
+                created.setTitle("created " + round);
+                created.setRank(round);
+                futures.add(service.createIndexAsync(AckMode.VISIBLE, created));
+                IndexModel4Number updated = new IndexModel4Number();
+                updated.setId("o" + i);
+                updated.setTitle("updated " + round);
+                updated.setRank(round);
+                futures.add(service.updateIndexAsync(updated, AckMode.VISIBLE));
+                futures.add(service.deleteIndexAsync(IndexModel4Number.class, "o" + i, AckMode.VISIBLE));
+            }
+        }
+        for (int i = 0; i < 20; i += 2) {
+            IndexModel4Number last = new IndexModel4Number();
+            last.setId("o" + i);
+            last.setTitle("final");
+            last.setRank(100);
+            futures.add(service.updateIndexAsync(last, AckMode.VISIBLE));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+        service.refresh(IndexModel4Number.class);
+
+        Assert.assertEquals(service.getTotals(IndexModel4Number.class), 10);
+        for (int i = 0; i < 20; i++) {
+            List<IndexModel4Number> items = service.search("id", "o" + i, IndexModel4Number.class, 1, 10).getContent();
+            if (i % 2 == 0) {
+                Assert.assertEquals(items.size(), 1);
+                Assert.assertEquals(items.get(0).getTitle(), "final");
+            } else {
+                Assert.assertTrue(items.isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void t30_testRestoreWhileIndexing() throws Exception {
+        String liveDir = newFolder("./index_dir_live_restore");
+        String backupDir = newFolder("./index_dir_live_backup");
+        IndexService service = open(new IndexService(liveDir));
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        service.setMetricsListener(new MetricsListener() {
+            @Override
+            public void onError(String catalog, String operation, Throwable error) {
+                errors.add(error);
+            }
+        });
+        for (int i = 1; i <= 10; i++) {
+            IndexModel4Number m = new IndexModel4Number();
+            m.setId("l" + i);
+            m.setTitle("Live " + i);
+            m.setRank(i);
+            service.createIndex(m);
+        }
+        Assert.assertTrue(service.snapshot(IndexModel4Number.class, backupDir) > 0);
+
+        // searches and writes in flight go on while the catalog is swapped
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<?> writes = executor.submit(() -> {
+            for (int i = 11; running.get(); i++) {
+                IndexModel4Number m = new IndexModel4Number();
+                m.setId("l" + i);
+                m.setTitle("Live " + i);
+                m.setRank(i);
+                service.createIndex(m);
+            }
+        });
+        Future<?> searches = executor.submit(() -> {
+            while (running.get()) {
+                Assert.assertTrue(service.count("live", IndexModel4Number.class) >= 10);
+            }
+        });
+        try {
+            for (int i = 0; i < 5; i++) {
+                Thread.sleep(20);
+                Assert.assertTrue(service.restore(IndexModel4Number.class, backupDir));
+            }
+        } finally {
+            running.set(false);
+            executor.shutdown();
+        }
+        writes.get();
+        searches.get();
+
+        Assert.assertTrue(errors.toString(), errors.isEmpty());
+        Assert.assertTrue(service.count("live", IndexModel4Number.class) >= 10);
+    }
+
+    @Test
+    public void t31_testReplicationAfterRestore() throws Exception {
+        String leaderDir = newFolder("./index_dir_reset_leader");
+        String followerDir = newFolder("./index_dir_reset_follower");
+        String sharedDir = newFolder("./index_dir_reset_shared");
+        String backupDir = newFolder("./index_dir_reset_backup");
+        IndexService leader = open(new IndexService(leaderDir));
+        leader.publish(ReplicationTransport.files(sharedDir));
+        IndexService follower = open(new IndexService(followerDir));
+        follower.follow(ReplicationTransport.files(sharedDir));
+        for (int i = 1; i <= 20; i++) {
+            IndexModel4Number m = new IndexModel4Number();
+            m.setId("b" + i);
+            m.setTitle("Before " + i);
+            m.setRank(i);
+            leader.createIndex(m);
+            if (i == 10) {
+                Assert.assertTrue(leader.snapshot(IndexModel4Number.class, backupDir) > 0);
+            }
+            if (i % 5 == 0) {
+                leader.commit();
+            }
+        }
+        leader.awaitPublished();
+        Assert.assertEquals(follower.replicate(), 1);
+        Assert.assertEquals(follower.count(null, IndexModel4Number.class), 20);
+
+        // the leader goes back to an older commit, its new segments are named as the ones of the follower
+        Assert.assertTrue(leader.restore(IndexModel4Number.class, backupDir));
+        leader.awaitPublished();
+        Assert.assertEquals(follower.replicate(), 1);
+        Assert.assertEquals(follower.count(null, IndexModel4Number.class), 10);
+        for (int i = 1; i <= 3; i++) {
+            IndexModel4Number m = new IndexModel4Number();
+            m.setId("a" + i);
+            m.setTitle("After " + i);
+            m.setRank(i);
+            leader.createIndex(m);
+        }
+        leader.commit();
+        leader.awaitPublished();
+        Assert.assertEquals(follower.replicate(), 1);
+        Assert.assertEquals(follower.count(null, IndexModel4Number.class), 13);
+        Assert.assertEquals(follower.count("after", IndexModel4Number.class), 3);
+
+        // the changes not committed yet are published when the leader is closed
+        IndexModel4Number last = new IndexModel4Number();
+        last.setId("a4");
+        last.setTitle("After 4");
+        last.setRank(4);
+        leader.createIndex(last);
+        leader.close();
+        Assert.assertEquals(follower.replicate(), 1);
+        Assert.assertEquals(follower.count("after", IndexModel4Number.class), 4);
+
+        // followers have no writers
+        follower.setRamBufferSizeMB(32);
+        try {
+            follower.deleteAll();
+            Assert.fail();
+        } catch (IllegalStateException ex) {
+            // followers are read-only
+        }
+    }
+}